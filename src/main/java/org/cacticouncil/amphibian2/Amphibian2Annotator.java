@@ -1,25 +1,61 @@
 package org.cacticouncil.amphibian2;
 
 import com.intellij.lang.annotation.AnnotationHolder;
+import com.intellij.lang.annotation.AnnotationSession;
 import com.intellij.lang.annotation.Annotator;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.util.Key;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
 import org.jetbrains.annotations.NotNull;
 
-public class Amphibian2Annotator implements Annotator
+public class Amphibian2Annotator implements Annotator, DumbAware
 {
+    private static final Key<Amphibian2Metrics.Record> METRICS_KEY = Key.create("amphibian2.annotator.metrics");
+
     @Override
     public void annotate(@NotNull PsiElement element, @NotNull AnnotationHolder holder)
     {
-        // TODO: determine solution to support multiple languages, only supports Java currently
-//        String elementDescription = ElementDescriptionUtil.getElementDescription(element, UsageViewTypeLocation.INSTANCE);
-//        System.out.println(elementDescription);
-//
-//        if (elementDescription.contains("method") || elementDescription.contains("function"))
-//        {
-//            Amphibian2ColorGenerator.colorMethodBlock(element, holder);
-//        }
-
-        // Get the color of the block based on the syntax element
-        Amphibian2ColorGenerator.getBlockColor(element, holder);
+        if (!Amphibian2Settings.getInstance().useLegacyAnnotator)
+        {
+            // The highlighting pass colors the whole file instead
+            return;
+        }
+
+        // Get the metrics of this file's annotation session, if they are collected
+        AnnotationSession session = holder.getCurrentAnnotationSession();
+        Amphibian2Metrics.Record metrics = session.getUserData(METRICS_KEY);
+
+        if (metrics == null && Amphibian2Settings.getInstance().collectMetrics)
+        {
+            metrics = Amphibian2Metrics.createRecord(session.getFile());
+            session.putUserData(METRICS_KEY, metrics);
+        }
+
+        if (metrics == null)
+        {
+            // Get the color of the block based on the syntax element and its language
+            Amphibian2ColorGenerator.getBlockColor(element, holder);
+            return;
+        }
+
+        Amphibian2Metrics.Record previous = Amphibian2Metrics.enter(metrics);
+        long start = System.nanoTime();
+
+        try
+        {
+            Amphibian2ColorGenerator.getBlockColor(element, holder);
+        }
+        finally
+        {
+            Amphibian2Metrics.exit(previous);
+            metrics.addNanos(System.nanoTime() - start);
+
+            if (element instanceof PsiFile)
+            {
+                // The file is annotated after all of its elements, so its record is complete now
+                Amphibian2Metrics.publish(metrics);
+            }
+        }
     }
 }
@@ -0,0 +1,155 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.LanguageFileType;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.JarFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.indexing.SingleEntryFileBasedIndexExtension;
+import com.intellij.util.indexing.SingleEntryIndexer;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+
+public class Amphibian2BlockIndex extends SingleEntryFileBasedIndexExtension<Amphibian2BlockModel>
+{
+    public static final ID<Integer, Amphibian2BlockModel> NAME = ID.create("org.cacticouncil.amphibian2.blocks");
+
+    // Bump whenever the stored format changes, or the coloring rules of any handler change the spans it makes,
+    // since stored models are otherwise read back as they are
+    private static final int VERSION = 3;
+
+    @NotNull
+    @Override
+    public ID<Integer, Amphibian2BlockModel> getName()
+    {
+        return NAME;
+    }
+
+    @NotNull
+    @Override
+    public SingleEntryIndexer<Amphibian2BlockModel> getIndexer()
+    {
+        return new SingleEntryIndexer<Amphibian2BlockModel>(false)
+        {
+            @Nullable
+            @Override
+            protected Amphibian2BlockModel computeValue(@NotNull FileContent inputData)
+            {
+                // The value may only depend on the content: it is shared between files with the same content, and
+                // kept when the roots of a project change. Store everything at full coloring; the limits of the
+                // settings and the roots of the project are applied when it is read
+                return Amphibian2BlockModel.computeFull(inputData.getPsiFile());
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public DataExternalizer<Amphibian2BlockModel> getValueExternalizer()
+    {
+        return new DataExternalizer<Amphibian2BlockModel>()
+        {
+            @Override
+            public void save(@NotNull DataOutput out, Amphibian2BlockModel model) throws IOException
+            {
+                DataInputOutputUtil.writeINT(out, model.getTextLength());
+                model.getBlocks().write(out);
+                model.getSpans().write(out);
+            }
+
+            @Override
+            public Amphibian2BlockModel read(@NotNull DataInput in) throws IOException
+            {
+                int textLength = DataInputOutputUtil.readINT(in);
+                Amphibian2IntervalIndex blocks = Amphibian2IntervalIndex.read(in);
+                return new Amphibian2BlockModel(blocks, Amphibian2IntervalIndex.read(in), textLength);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter()
+    {
+        // Indexing a file builds its tree and walks all of it at full coloring, costing about as much as the first
+        // pass over it, so only the languages that have blocks are indexed, and never the sources in the archives
+        // of libraries and the JDK. The filter has no project, so library sources outside archives are indexed
+        return file ->
+        {
+            FileType fileType = file.getFileType();
+            return fileType instanceof LanguageFileType && !(file.getFileSystem() instanceof JarFileSystem)
+                    && Amphibian2BlockProvider.forLanguage(((LanguageFileType) fileType).getLanguage()) != null;
+        };
+    }
+
+    @Override
+    public boolean hasSnapshotMapping()
+    {
+        // Share the stored blocks between files with the same content
+        return true;
+    }
+
+    @Override
+    public int getVersion()
+    {
+        return VERSION;
+    }
+
+    @Nullable
+    public static Amphibian2BlockModel getModel(@NotNull PsiFile file)
+    {
+        VirtualFile virtualFile = file.getVirtualFile();
+        Project project = file.getProject();
+
+        if (!(virtualFile instanceof VirtualFileWithId) || DumbService.isDumb(project))
+        {
+            // The index can't be read while it is being updated
+            return null;
+        }
+
+        ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+
+        if (!fileIndex.isInContent(virtualFile) || fileIndex.isInLibrary(virtualFile))
+        {
+            // Only files of the project itself use the index; the roots are checked here rather than when indexing,
+            // since the stored value can't depend on them
+            return null;
+        }
+
+        // The index only holds the saved content; compare stamps and lengths only, so neither the text nor the tree
+        // of the file is loaded before the stored model is known to match
+        Document document = FileDocumentManager.getInstance().getCachedDocument(virtualFile);
+
+        if (document != null && document.getModificationStamp() != virtualFile.getModificationStamp())
+        {
+            return null;
+        }
+
+        Iterator<Amphibian2BlockModel> values = FileBasedIndex.getInstance().getFileData(NAME, virtualFile, project)
+                .values().iterator();
+        Amphibian2BlockModel model = values.hasNext() ? values.next() : null;
+        int textLength = document != null ? document.getTextLength() : file.getTextLength();
+
+        if (model == null || model.getTextLength() != textLength)
+        {
+            return null;
+        }
+
+        return model.reduceFor(file);
+    }
+}
@@ -0,0 +1,46 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import org.jetbrains.annotations.NotNull;
+import java.awt.*;
+
+public enum Amphibian2BlockKind
+{
+    // Each kind of block with its TA key and translucent color constant
+    IMPORT("IMPORT_KEY", new Color(0x33F6F8F7, true)),
+    CLASS("CLASS_KEY", new Color(0x33A861E0, true)),
+    METHOD("METHOD_KEY", new Color(0x33E59B05, true)),
+    CONDITION("COND_KEY", new Color(0x33E06185, true)),
+    STATEMENT("STMT_KEY", new Color(0x336FD2E5, true));
+
+    private final TextAttributesKey key;
+    private final Color color;
+
+    Amphibian2BlockKind(@NotNull String keyName, @NotNull Color color)
+    {
+        this.key = createKey(keyName, color);
+        this.color = color;
+    }
+
+    @SuppressWarnings("deprecation")
+    @NotNull
+    private static TextAttributesKey createKey(@NotNull String name, @NotNull Color color)
+    {
+        // Only the Default and Darcula schemes ship values for the keys, so any other scheme falls back to the
+        // translucent color itself, which blends over whatever background that scheme has
+        return TextAttributesKey.createTextAttributesKey(name, new TextAttributes(null, color, null, null, Font.PLAIN));
+    }
+
+    @NotNull
+    public TextAttributesKey getKey()
+    {
+        return key;
+    }
+
+    @NotNull
+    public Color getColor()
+    {
+        return color;
+    }
+}
@@ -0,0 +1,699 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Getter;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.SimpleModificationTracker;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.ParameterizedCachedValue;
+import com.intellij.psi.util.ParameterizedCachedValueProvider;
+import com.intellij.psi.util.PsiTreeUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public final class Amphibian2BlockModel
+{
+    // Bumped whenever a setting or per-file choice changes how files are colored
+    private static final SimpleModificationTracker OPTIONS_TRACKER = new SimpleModificationTracker();
+
+    private static final Amphibian2BlockKind[] KINDS = Amphibian2BlockKind.values();
+
+    // The model of each file, cached until the file or the options change; built from the changed element, if known
+    private static final Key<ParameterizedCachedValue<Amphibian2BlockModel, Pair<PsiFile, PsiElement>>> MODEL_KEY =
+            Key.create("amphibian2.blockModel");
+
+    private static final ParameterizedCachedValueProvider<Amphibian2BlockModel, Pair<PsiFile, PsiElement>> PROVIDER =
+            request -> CachedValueProvider.Result.create(build(request.getFirst(), request.getSecond()),
+                    request.getFirst(), OPTIONS_TRACKER);
+
+    // The last model built of each file, outdated or not, kept so an edit only rebuilds the part of it that changed
+    private static final Key<Amphibian2BlockModel> LAST_MODEL_KEY = Key.create("amphibian2.lastBlockModel");
+
+    // The blocks of the file, and the merged spans of their key tokens
+    private final Amphibian2IntervalIndex blocks;
+    private final Amphibian2IntervalIndex spans;
+    private final Amphibian2ColoringLevel level;
+
+    // The length of the file and the options the model was built from
+    private final int textLength;
+    private final long options;
+
+    private Amphibian2BlockModel(@NotNull Amphibian2IntervalIndex blocks, @NotNull Amphibian2IntervalIndex spans,
+                                 @NotNull Amphibian2ColoringLevel level, @NotNull PsiFile file)
+    {
+        this.blocks = blocks;
+        this.spans = spans;
+        this.level = level;
+        this.textLength = file.getTextLength();
+        this.options = OPTIONS_TRACKER.getModificationCount();
+    }
+
+    public Amphibian2BlockModel(@NotNull Amphibian2IntervalIndex blocks, @NotNull Amphibian2IntervalIndex spans,
+                                int textLength)
+    {
+        // A full model read back from storage, not tied to any file until it is reduced for one
+        this.blocks = blocks;
+        this.spans = spans;
+        this.level = Amphibian2ColoringLevel.FULL;
+        this.textLength = textLength;
+        this.options = -1;
+    }
+
+    @NotNull
+    public static Amphibian2BlockModel getInstance(@NotNull PsiFile file)
+    {
+        return getInstance(file, null);
+    }
+
+    @NotNull
+    public static Amphibian2BlockModel getInstance(@NotNull PsiFile file, @Nullable PsiElement changed)
+    {
+        // Build the model of the whole file once per modification of the file or the options
+        return CachedValuesManager.getManager(file.getProject()).getParameterizedCachedValue(file, MODEL_KEY, PROVIDER,
+                false, Pair.create(file, changed));
+    }
+
+    @NotNull
+    private static Amphibian2BlockModel build(@NotNull PsiFile file, @Nullable PsiElement changed)
+    {
+        Amphibian2BlockModel last = file.getUserData(LAST_MODEL_KEY);
+        Amphibian2BlockModel model = null;
+
+        if (last != null && changed != null && last.options == OPTIONS_TRACKER.getModificationCount())
+        {
+            // Only rebuild the changed element when every edit since the last model lies inside it
+            model = recompute(file, last, changed);
+        }
+
+        if (model == null && last == null)
+        {
+            // Read the blocks of an unchanged file from the index when possible, so its tree is never built
+            model = Amphibian2BlockIndex.getModel(file);
+        }
+
+        if (model == null)
+        {
+            model = compute(file, file.getTextRange());
+        }
+
+        file.putUserData(LAST_MODEL_KEY, model);
+        return model;
+    }
+
+    @NotNull
+    public static Amphibian2BlockModel getLimitedInstance(@NotNull PsiFile file, @NotNull Amphibian2ColoringLevel maxLevel)
+    {
+        if (maxLevel == Amphibian2ColoringLevel.FULL)
+        {
+            return getInstance(file);
+        }
+
+        // Reduce the model of the whole file when another editor already built it
+        Amphibian2BlockModel last = getCachedInstance(file);
+
+        if (last != null)
+        {
+            return last.level.ordinal() >= maxLevel.ordinal() ? last : last.reduce(maxLevel, file);
+        }
+
+        // Otherwise only walk the file at the lower level, keeping it from replacing the model of the whole file
+        return compute(file, file.getTextRange(), maxLevel);
+    }
+
+    @Nullable
+    public static Amphibian2BlockModel getCachedInstance(@NotNull PsiFile file)
+    {
+        // The model of the whole file, only if it is up to date; never builds one
+        ParameterizedCachedValue<Amphibian2BlockModel, Pair<PsiFile, PsiElement>> value = file.getUserData(MODEL_KEY);
+        Getter<Amphibian2BlockModel> upToDate = value != null ? value.getUpToDateOrNull() : null;
+        return upToDate != null ? upToDate.get() : null;
+    }
+
+    @Nullable
+    public static PsiElement findChangedElement(@NotNull PsiFile file, @NotNull TextRange dirtyRange)
+    {
+        Amphibian2BlockProvider provider = Amphibian2BlockProvider.forLanguage(file.getLanguage());
+
+        if (provider == null || dirtyRange.isEmpty())
+        {
+            return null;
+        }
+
+        if (file.getUserData(LAST_MODEL_KEY) == null || getCachedInstance(file) != null)
+        {
+            // With no model to splice into, the index is read first and may spare the tree; an up to date model needs
+            // nothing rebuilt. Either way, looking up the elements would only load the tree for nothing
+            return null;
+        }
+
+        // Find the smallest element holding the whole dirty range
+        PsiElement first = file.findElementAt(dirtyRange.getStartOffset());
+        PsiElement last = file.findElementAt(dirtyRange.getEndOffset() - 1);
+
+        if (first == null || last == null)
+        {
+            return null;
+        }
+
+        PsiElement common = PsiTreeUtil.findCommonParent(first, last);
+
+        // Let the provider widen it to an element whose spans don't depend on anything around it
+        return common == null ? null : provider.getRecolorRoot(common);
+    }
+
+    public static void invalidateAll()
+    {
+        OPTIONS_TRACKER.incModificationCount();
+    }
+
+    @NotNull
+    public static Amphibian2BlockModel compute(@NotNull PsiFile file, @NotNull TextRange range)
+    {
+        return compute(file, range, Amphibian2ColoringLevel.FULL);
+    }
+
+    @NotNull
+    public static Amphibian2BlockModel compute(@NotNull PsiFile file, @NotNull TextRange range,
+                                               @NotNull Amphibian2ColoringLevel maxLevel)
+    {
+        // Start at the level the length of the file allows, if that is below the highest level asked for
+        VirtualFile virtualFile = file.getVirtualFile();
+        int lineCount = StringUtil.countNewLines(file.getViewProvider().getContents()) + 1;
+        Amphibian2ColoringLevel level = Amphibian2LargeFiles.getStartLevel(virtualFile, lineCount);
+
+        if (level.ordinal() < maxLevel.ordinal())
+        {
+            level = maxLevel;
+        }
+
+        if (range.equals(file.getTextRange()) && lineCount > Amphibian2Settings.getInstance().parallelFileLines
+                && ApplicationManager.getApplication().isReadAccessAllowed())
+        {
+            // Color the members of huge files in parallel, stepping down a level whenever the budget runs out
+            Amphibian2BlockProvider provider = Amphibian2BlockProvider.forLanguage(file.getLanguage());
+            List<PsiElement> roots = provider != null ? provider.getRecolorRoots(file) : Collections.emptyList();
+
+            for (; roots.size() > 1; level = level.reduce())
+            {
+                Amphibian2BlockModel model = computeParallel(file, level, roots);
+
+                if (model != null)
+                {
+                    return model;
+                }
+
+                if (level.reduce() == null)
+                {
+                    // Let a walk on this thread keep whatever fits at the cheapest level
+                    break;
+                }
+            }
+        }
+
+        Builder builder = new Builder();
+        Amphibian2Budget budget = Amphibian2LargeFiles.createBudget(virtualFile, builder);
+
+        if (budget == null)
+        {
+            Amphibian2ColorGenerator.getFileBlockColor(file, range, level, builder);
+            return builder.build(level, file);
+        }
+
+        // Step down a level and walk again whenever the element or annotation budget runs out
+        while (!Amphibian2ColorGenerator.getFileBlockColor(file, range, level, budget))
+        {
+            Amphibian2ColoringLevel reduced = level.reduce();
+
+            if (reduced == null)
+            {
+                // Keep whatever fit in the budget at the cheapest level
+                break;
+            }
+
+            level = reduced;
+            builder = new Builder();
+            budget = Amphibian2LargeFiles.createBudget(virtualFile, builder);
+        }
+
+        return builder.build(level, file);
+    }
+
+    @Nullable
+    private static Amphibian2BlockModel computeParallel(@NotNull PsiFile file, @NotNull Amphibian2ColoringLevel level,
+                                                        @NotNull List<PsiElement> roots)
+    {
+        // One part for the file around the roots, then one per root, each with a builder and budget of its own
+        VirtualFile virtualFile = file.getVirtualFile();
+        List<Part> parts = new ArrayList<>(roots.size() + 1);
+        parts.add(new Part(file, virtualFile));
+
+        for (PsiElement root : roots)
+        {
+            parts.add(new Part(root, virtualFile));
+        }
+
+        Set<PsiElement> skipped = new HashSet<>(roots);
+
+        // The tasks share the read action of this thread; their elements are not counted in the metrics
+        boolean completed = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(parts,
+                ProgressManager.getInstance().getProgressIndicator(), part -> part.color(level, skipped));
+
+        List<Amphibian2Budget> budgets = new ArrayList<>();
+
+        for (Part part : parts)
+        {
+            if (part.budget != null)
+            {
+                budgets.add(part.budget);
+            }
+        }
+
+        if (!completed || Amphibian2Budget.isExhausted(budgets))
+        {
+            return null;
+        }
+
+        // Merge the blocks of every part in start order, outer blocks first, and nest them again
+        List<Amphibian2BlockModel> models = new ArrayList<>(parts.size());
+        int blockCount = 0;
+
+        for (Part part : parts)
+        {
+            Amphibian2BlockModel model = part.builder.build(level, file);
+            models.add(model);
+            blockCount += model.blocks.size();
+        }
+
+        int[] starts = new int[blockCount];
+        int[] ends = new int[blockCount];
+        int[] kinds = new int[blockCount];
+        Integer[] order = new Integer[blockCount];
+        int n = 0;
+
+        for (Amphibian2BlockModel model : models)
+        {
+            for (int i = 0; i < model.blocks.size(); i++, n++)
+            {
+                starts[n] = model.blocks.getStart(i);
+                ends[n] = model.blocks.getEnd(i);
+                kinds[n] = model.blocks.getKind(i);
+                order[n] = n;
+            }
+        }
+
+        // The sort is stable, so blocks of the same range keep the order they were walked in
+        Arrays.sort(order, (a, b) -> starts[a] != starts[b]
+                ? Integer.compare(starts[a], starts[b]) : Integer.compare(ends[b], ends[a]));
+
+        Builder merged = new Builder();
+
+        for (int i : order)
+        {
+            merged.addBlock(starts[i], ends[i], kinds[i]);
+        }
+
+        // Spans touching across the edge of a root merge again when they are collected together
+        for (Amphibian2BlockModel model : models)
+        {
+            for (int i = 0; i < model.spans.size(); i++)
+            {
+                merged.collector.addSpan(model.spans.getStart(i), model.spans.getEnd(i), KINDS[model.spans.getKind(i)]);
+            }
+        }
+
+        return merged.build(level, file);
+    }
+
+    @NotNull
+    public static Amphibian2BlockModel computeFull(@NotNull PsiFile file)
+    {
+        // Color everything, ignoring the limits of the settings
+        Builder builder = new Builder();
+        Amphibian2ColorGenerator.getFileBlockColor(file, file.getTextRange(), Amphibian2ColoringLevel.FULL, builder);
+        return builder.build(Amphibian2ColoringLevel.FULL, file);
+    }
+
+    @Nullable
+    public Amphibian2BlockModel reduceFor(@NotNull PsiFile file)
+    {
+        // Apply the level and limits a walk of the file would have used, or null when they don't fit
+        VirtualFile virtualFile = file.getVirtualFile();
+        int lineCount = StringUtil.countNewLines(file.getViewProvider().getContents()) + 1;
+        Amphibian2ColoringLevel level = Amphibian2LargeFiles.getStartLevel(virtualFile, lineCount);
+        int maxSpans = Amphibian2LargeFiles.getSpanLimit(virtualFile);
+
+        for (; level != null; level = level.reduce())
+        {
+            Amphibian2BlockModel model = reduce(level, file);
+
+            if (model.spans.size() <= maxSpans)
+            {
+                return model;
+            }
+        }
+
+        return null;
+    }
+
+    @NotNull
+    private Amphibian2BlockModel reduce(@NotNull Amphibian2ColoringLevel level, @NotNull PsiFile file)
+    {
+        // Drop the blocks and spans of the kinds the level doesn't color, and nest the rest again
+        Amphibian2IntervalIndex.Builder reducedBlocks = new Amphibian2IntervalIndex.Builder();
+        int[] openEnds = new int[16];
+        int openCount = 0;
+
+        for (int i = 0; i < blocks.size(); i++)
+        {
+            if (!level.colors(KINDS[blocks.getKind(i)]))
+            {
+                continue;
+            }
+
+            while (openCount > 0 && openEnds[openCount - 1] <= blocks.getStart(i))
+            {
+                openCount--;
+            }
+
+            reducedBlocks.add(blocks.getStart(i), blocks.getEnd(i), blocks.getKind(i), openCount);
+
+            if (openCount == openEnds.length)
+            {
+                openEnds = Arrays.copyOf(openEnds, openCount * 2);
+            }
+
+            openEnds[openCount++] = blocks.getEnd(i);
+        }
+
+        Amphibian2IntervalIndex blockIndex = reducedBlocks.build();
+        Amphibian2IntervalIndex.Builder reducedSpans = new Amphibian2IntervalIndex.Builder();
+        int[] depth = new int[1];
+
+        for (int i = 0; i < spans.size(); i++)
+        {
+            if (level.colors(KINDS[spans.getKind(i)]))
+            {
+                depth[0] = 0;
+                blockIndex.processEnclosing(spans.getStart(i), b -> depth[0] = blockIndex.getDepth(b));
+                reducedSpans.add(spans.getStart(i), spans.getEnd(i), spans.getKind(i), depth[0]);
+            }
+        }
+
+        return new Amphibian2BlockModel(blockIndex, reducedSpans.build(), level, file);
+    }
+
+    @Nullable
+    private static Amphibian2BlockModel recompute(@NotNull PsiFile file, @NotNull Amphibian2BlockModel last,
+                                                  @NotNull PsiElement changed)
+    {
+        // The changed element ends delta characters later than it did in the last model
+        TextRange range = changed.getTextRange();
+        int delta = file.getTextLength() - last.textLength;
+        int oldEnd = range.getEndOffset() - delta;
+
+        if (oldEnd < range.getStartOffset())
+        {
+            return null;
+        }
+
+        // Walk only the changed element, at the level the file was colored at
+        VirtualFile virtualFile = file.getVirtualFile();
+        Builder builder = new Builder();
+        Amphibian2Budget budget = Amphibian2LargeFiles.createBudget(virtualFile, builder);
+
+        if (budget == null)
+        {
+            Amphibian2ColorGenerator.getTreeBlockColor(changed, last.level, builder);
+        }
+        else if (!Amphibian2ColorGenerator.getTreeBlockColor(changed, last.level, budget))
+        {
+            // Let the whole file step down a level instead
+            return null;
+        }
+
+        Amphibian2BlockModel inner = builder.build(last.level, file);
+
+        // Blocks of the inner model are nested inside the ones enclosing the changed element
+        int[] baseDepth = new int[1];
+        Amphibian2IntervalIndex blocks = splice(last.blocks, inner.blocks, range.getStartOffset(), oldEnd, delta, true, baseDepth);
+
+        if (blocks == null)
+        {
+            return null;
+        }
+
+        Amphibian2IntervalIndex spans = splice(last.spans, inner.spans, range.getStartOffset(), oldEnd, delta, false, baseDepth);
+
+        if (spans == null)
+        {
+            return null;
+        }
+
+        return new Amphibian2BlockModel(blocks, spans, last.level, file);
+    }
+
+    @Nullable
+    private static Amphibian2IntervalIndex splice(@NotNull Amphibian2IntervalIndex old, @NotNull Amphibian2IntervalIndex inner,
+                                                  int start, int oldEnd, int delta, boolean blocks, int[] baseDepth)
+    {
+        Amphibian2IntervalIndex.Builder builder = new Amphibian2IntervalIndex.Builder();
+
+        // Keep the entries before the changed element and stretch the ones around it
+        for (int i = 0; i < old.size(); i++)
+        {
+            int s = old.getStart(i);
+            int e = old.getEnd(i);
+
+            if (s >= oldEnd || (s >= start && e <= oldEnd))
+            {
+                // Entries after the changed element are shifted below, the ones inside it replaced
+                continue;
+            }
+
+            if (e < start || (blocks && e == start))
+            {
+                builder.add(s, e, old.getKind(i), old.getDepth(i));
+            }
+            else if (blocks && s <= start && e >= oldEnd)
+            {
+                builder.add(s, e + delta, old.getKind(i), old.getDepth(i));
+                baseDepth[0] = Math.max(baseDepth[0], old.getDepth(i) + 1);
+            }
+            else
+            {
+                // A span touching or crossing the edge of the changed element might merge differently now
+                return null;
+            }
+        }
+
+        for (int i = 0; i < inner.size(); i++)
+        {
+            builder.add(inner.getStart(i), inner.getEnd(i), inner.getKind(i), inner.getDepth(i) + baseDepth[0]);
+        }
+
+        // Shift the entries after the changed element by the length of the edit
+        for (int i = 0; i < old.size(); i++)
+        {
+            int s = old.getStart(i);
+
+            if (s > oldEnd || (blocks && s == oldEnd))
+            {
+                builder.add(s + delta, old.getEnd(i) + delta, old.getKind(i), old.getDepth(i));
+            }
+            else if (s == oldEnd)
+            {
+                return null;
+            }
+        }
+
+        return builder.build();
+    }
+
+    @NotNull
+    public Amphibian2IntervalIndex getBlocks()
+    {
+        return blocks;
+    }
+
+    @NotNull
+    public Amphibian2IntervalIndex getSpans()
+    {
+        return spans;
+    }
+
+    public int getTextLength()
+    {
+        return textLength;
+    }
+
+    @NotNull
+    public Amphibian2ColoringLevel getLevel()
+    {
+        return level;
+    }
+
+    @NotNull
+    public static Amphibian2BlockKind getKind(int kind)
+    {
+        return KINDS[kind];
+    }
+
+    public long getMemorySize()
+    {
+        return blocks.getMemorySize() + spans.getMemorySize();
+    }
+
+    public void replay(@NotNull Amphibian2SpanSink sink)
+    {
+        // Hand out the merged spans, already ordered by start offset
+        for (int i = 0; i < spans.size(); i++)
+        {
+            sink.addSpan(spans.getStart(i), spans.getEnd(i), KINDS[spans.getKind(i)]);
+        }
+    }
+
+    public void replay(@NotNull TextRange range, @NotNull Amphibian2SpanSink sink)
+    {
+        // Hand out only the merged spans intersecting the range
+        spans.processIntersecting(range.getStartOffset(), range.getEndOffset(),
+                i -> sink.addSpan(spans.getStart(i), spans.getEnd(i), KINDS[spans.getKind(i)]));
+    }
+
+    private static final class Builder implements Amphibian2SpanSink
+    {
+        private final Amphibian2IntervalIndex.Builder blocks = new Amphibian2IntervalIndex.Builder();
+        private final Amphibian2SpanCollector collector = new Amphibian2SpanCollector();
+
+        // End offsets of the blocks enclosing the current element, innermost last
+        private int[] openEnds = new int[16];
+        private int openCount;
+
+        private PsiElement element;
+        private int elementSpans;
+        private Amphibian2BlockKind elementKind;
+
+        @Override
+        public void startElement(@NotNull PsiElement element)
+        {
+            finishElement();
+            this.element = element;
+        }
+
+        @Override
+        public void addSpan(int startOffset, int endOffset, @NotNull Amphibian2BlockKind kind)
+        {
+            if (elementSpans++ == 0)
+            {
+                // The element is a block, of the kind of its first span
+                elementKind = kind;
+            }
+
+            collector.addSpan(startOffset, endOffset, kind);
+        }
+
+        private void finishElement()
+        {
+            if (element == null || elementSpans == 0)
+            {
+                return;
+            }
+
+            TextRange range = element.getTextRange();
+            addBlock(range.getStartOffset(), range.getEndOffset(), elementKind.ordinal());
+            elementSpans = 0;
+        }
+
+        private void addBlock(int start, int end, int kind)
+        {
+            // Close the blocks that end before this one starts; the rest enclose it
+            while (openCount > 0 && openEnds[openCount - 1] <= start)
+            {
+                openCount--;
+            }
+
+            blocks.add(start, end, kind, openCount);
+
+            if (openCount == openEnds.length)
+            {
+                openEnds = Arrays.copyOf(openEnds, openCount * 2);
+            }
+
+            openEnds[openCount++] = end;
+        }
+
+        @NotNull
+        private Amphibian2BlockModel build(@NotNull Amphibian2ColoringLevel level, @NotNull PsiFile file)
+        {
+            finishElement();
+            Amphibian2IntervalIndex blockIndex = blocks.build();
+
+            // Merge the token spans, giving each the depth of the innermost block around its start
+            Amphibian2IntervalIndex.Builder spans = new Amphibian2IntervalIndex.Builder();
+            int[] depth = new int[1];
+
+            collector.flush((start, end, kind) ->
+            {
+                depth[0] = 0;
+                blockIndex.processEnclosing(start, i -> depth[0] = blockIndex.getDepth(i));
+                spans.add(start, end, kind.ordinal(), depth[0]);
+            });
+
+            return new Amphibian2BlockModel(blockIndex, spans.build(), level, file);
+        }
+    }
+
+    private static final class Part
+    {
+        private final PsiElement root;
+        private final Builder builder = new Builder();
+        private final Amphibian2Budget budget;
+
+        private Part(@NotNull PsiElement root, @Nullable VirtualFile virtualFile)
+        {
+            this.root = root;
+            this.budget = Amphibian2LargeFiles.createBudget(virtualFile, builder);
+        }
+
+        private boolean color(@NotNull Amphibian2ColoringLevel level, @NotNull Set<PsiElement> skipped)
+        {
+            if (root instanceof PsiFile)
+            {
+                // The file itself, without the roots the other parts color
+                if (budget == null)
+                {
+                    Amphibian2ColorGenerator.getFileBlockColor((PsiFile) root, level, builder, skipped);
+                }
+                else
+                {
+                    Amphibian2ColorGenerator.getFileBlockColor((PsiFile) root, level, budget, skipped);
+                }
+            }
+            else if (budget == null)
+            {
+                Amphibian2ColorGenerator.getTreeBlockColor(root, level, builder);
+            }
+            else
+            {
+                Amphibian2ColorGenerator.getTreeBlockColor(root, level, budget);
+            }
+
+            // Keep going when a part runs out of budget; the merge notices and steps the whole file down
+            return true;
+        }
+    }
+}
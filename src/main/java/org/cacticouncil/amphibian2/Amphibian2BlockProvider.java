@@ -0,0 +1,41 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.lang.Language;
+import com.intellij.lang.LanguageExtension;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.util.Collections;
+import java.util.List;
+
+public interface Amphibian2BlockProvider
+{
+    // Providers are registered per language and only loaded once a file of that language is colored
+    LanguageExtension<Amphibian2BlockProvider> EP = new LanguageExtension<>("org.cacticouncil.amphibian2.blockProvider");
+
+    @Nullable
+    static Amphibian2BlockProvider forLanguage(@NotNull Language language)
+    {
+        return EP.forLanguage(language);
+    }
+
+    // Creates a visitor reporting the spans of each element it visits at the given level, without visiting the children
+    @NotNull
+    PsiElementVisitor createVisitor(@NotNull Amphibian2SpanSink sink, @NotNull Amphibian2ColoringLevel level);
+
+    // Widens a changed element to one whose spans can be rebuilt on their own, or null to rebuild the whole file
+    @Nullable
+    default PsiElement getRecolorRoot(@NotNull PsiElement changed)
+    {
+        return null;
+    }
+
+    // Every element of the file getRecolorRoot could return, in order, so they can be colored in parallel
+    @NotNull
+    default List<PsiElement> getRecolorRoots(@NotNull PsiFile file)
+    {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,156 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.markup.CustomHighlighterRenderer;
+import com.intellij.openapi.editor.markup.HighlighterLayer;
+import com.intellij.openapi.editor.markup.HighlighterTargetArea;
+import com.intellij.openapi.editor.markup.RangeHighlighter;
+import com.intellij.openapi.util.Key;
+import org.jetbrains.annotations.NotNull;
+import java.awt.*;
+
+public final class Amphibian2BlockRenderer implements CustomHighlighterRenderer
+{
+    private static final Key<Amphibian2BlockRenderer> RENDERER_KEY = Key.create("amphibian2.blockRenderer");
+
+    // Opacity of each block, so the text, caret row and selection show through and nested blocks deepen the color
+    private static final float BLOCK_ALPHA = 0.35f;
+
+    // The one highlighter of the editor, covering the whole document
+    private final RangeHighlighter highlighter;
+
+    // The model painted, replaced by every highlighting pass
+    private Amphibian2BlockModel model;
+
+    // The palette of an editor with a scheme of its own
+    private Amphibian2Palette editorPalette;
+
+    private Amphibian2BlockRenderer(@NotNull Editor editor)
+    {
+        Document document = editor.getDocument();
+        highlighter = editor.getMarkupModel().addRangeHighlighter(0, document.getTextLength(),
+                HighlighterLayer.FIRST, null, HighlighterTargetArea.LINES_IN_RANGE);
+
+        // Keep covering the whole document as text is typed at either end
+        highlighter.setGreedyToLeft(true);
+        highlighter.setGreedyToRight(true);
+        highlighter.setCustomRenderer(this);
+    }
+
+    public static boolean setModel(@NotNull Editor editor, @NotNull Amphibian2BlockModel model)
+    {
+        // Returns true when the renderer was just added to the editor
+        Amphibian2BlockRenderer renderer = editor.getUserData(RENDERER_KEY);
+        boolean added = renderer == null || !renderer.highlighter.isValid();
+
+        if (added)
+        {
+            // Add the highlighter the first time the editor is painted by blocks
+            renderer = new Amphibian2BlockRenderer(editor);
+            editor.putUserData(RENDERER_KEY, renderer);
+        }
+
+        if (renderer.model != model)
+        {
+            // Repainting only ever touches the visible area
+            renderer.model = model;
+            editor.getContentComponent().repaint();
+        }
+
+        return added;
+    }
+
+    public static void uninstall(@NotNull Editor editor)
+    {
+        Amphibian2BlockRenderer renderer = editor.getUserData(RENDERER_KEY);
+
+        if (renderer != null)
+        {
+            editor.putUserData(RENDERER_KEY, null);
+            editor.getMarkupModel().removeHighlighter(renderer.highlighter);
+        }
+    }
+
+    @Override
+    public void paint(@NotNull Editor editor, @NotNull RangeHighlighter highlighter, @NotNull Graphics g)
+    {
+        Amphibian2BlockModel model = this.model;
+        Rectangle clip = g.getClipBounds();
+
+        // The model is made for the editor of the document that colors the most, so leave out what this one doesn't
+        Amphibian2ColoringLevel level = Amphibian2EditorPolicy.forEditor(editor).getLevel();
+
+        if (model == null || clip == null || level == null)
+        {
+            return;
+        }
+
+        // Find the lines inside the clip
+        Document document = editor.getDocument();
+        int length = document.getTextLength();
+        int startOffset = editor.logicalPositionToOffset(editor.xyToLogicalPosition(new Point(0, clip.y)));
+        int endOffset = editor.logicalPositionToOffset(editor.xyToLogicalPosition(new Point(0, clip.y + clip.height)));
+        endOffset = document.getLineEndOffset(document.getLineNumber(Math.min(endOffset, length)));
+
+        // Paint in the colors the scheme of the editor gives each kind
+        Amphibian2Palette palette = getPalette(editor);
+        int lineHeight = editor.getLineHeight();
+        int right = clip.x + clip.width;
+        Amphibian2IntervalIndex blocks = model.getBlocks();
+
+        // Blend the blocks over the layers painted before them instead of covering them
+        Graphics2D g2 = (Graphics2D) g.create();
+
+        try
+        {
+            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, BLOCK_ALPHA));
+
+            // Paint every block crossing the clip, outer blocks first so nested ones lie on top
+            blocks.processIntersecting(startOffset, endOffset + 1, i ->
+            {
+                Amphibian2BlockKind kind = Amphibian2BlockModel.getKind(blocks.getKind(i));
+
+                if (!level.colors(kind))
+                {
+                    return;
+                }
+
+                // The model may be one edit behind the document until the next pass
+                int start = Math.min(blocks.getStart(i), length);
+                int end = Math.min(Math.max(blocks.getEnd(i) - 1, start), length);
+
+                Point top = editor.offsetToXY(start);
+                int bottom = editor.offsetToXY(end).y + lineHeight;
+
+                g2.setColor(palette.getAttributes(kind).getBackgroundColor());
+                g2.fillRect(top.x, top.y, right - top.x, bottom - top.y);
+            });
+        }
+        finally
+        {
+            g2.dispose();
+        }
+    }
+
+    @NotNull
+    private Amphibian2Palette getPalette(@NotNull Editor editor)
+    {
+        // Editors normally use the global scheme, whose palette is shared
+        Amphibian2Palette palette = Amphibian2ColorGenerator.getPalette();
+        EditorColorsScheme scheme = editor.getColorsScheme();
+
+        if (palette.getScheme() == scheme || palette.getScheme().getName().equals(scheme.getName()))
+        {
+            return palette;
+        }
+
+        if (editorPalette == null || editorPalette.getScheme() != scheme)
+        {
+            editorPalette = Amphibian2Palette.create(scheme);
+        }
+
+        return editorPalette;
+    }
+}
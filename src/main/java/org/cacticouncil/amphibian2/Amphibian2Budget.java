@@ -0,0 +1,69 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.psi.PsiElement;
+import org.jetbrains.annotations.NotNull;
+import java.util.List;
+
+public final class Amphibian2Budget implements Amphibian2SpanSink
+{
+    private final Amphibian2SpanSink sink;
+    private final int maxElements;
+    private final int maxSpans;
+
+    private int elements;
+    private int spans;
+
+    public Amphibian2Budget(@NotNull Amphibian2SpanSink sink, int maxElements, int maxSpans)
+    {
+        this.sink = sink;
+        this.maxElements = maxElements;
+        this.maxSpans = maxSpans;
+    }
+
+    @Override
+    public void addSpan(int startOffset, int endOffset, @NotNull Amphibian2BlockKind kind)
+    {
+        // Pass spans on until the budget is spent
+        if (++spans <= maxSpans)
+        {
+            sink.addSpan(startOffset, endOffset, kind);
+        }
+    }
+
+    @Override
+    public void startElement(@NotNull PsiElement element)
+    {
+        sink.startElement(element);
+    }
+
+    public boolean elementVisited()
+    {
+        // Returns false once either limit is crossed
+        return ++elements <= maxElements && spans <= maxSpans;
+    }
+
+    public boolean isExhausted()
+    {
+        return elements > maxElements || spans > maxSpans;
+    }
+
+    public static boolean isExhausted(@NotNull List<Amphibian2Budget> budgets)
+    {
+        // Whether budgets of the same limits, spent on parts of one file, together crossed either limit
+        long elements = 0;
+        long spans = 0;
+
+        for (Amphibian2Budget budget : budgets)
+        {
+            if (budget.isExhausted())
+            {
+                return true;
+            }
+
+            elements += budget.elements;
+            spans += budget.spans;
+        }
+
+        return !budgets.isEmpty() && (elements > budgets.get(0).maxElements || spans > budgets.get(0).maxSpans);
+    }
+}
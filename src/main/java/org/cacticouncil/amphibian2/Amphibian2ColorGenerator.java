@@ -2,144 +2,416 @@ package org.cacticouncil.amphibian2;
 
 import com.intellij.lang.annotation.AnnotationHolder;
 import com.intellij.lang.annotation.HighlightSeverity;
-import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.colors.EditorColorsManager;
-import com.intellij.openapi.editor.colors.EditorColorsScheme;
-import com.intellij.openapi.editor.colors.TextAttributesKey;
-import com.intellij.openapi.editor.markup.EffectType;
-import com.intellij.openapi.editor.markup.TextAttributes;
-import com.intellij.openapi.project.Project;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.*;
 import org.jetbrains.annotations.NotNull;
-import java.awt.*;
+import org.jetbrains.annotations.Nullable;
+import java.util.Collections;
+import java.util.Set;
 
 public class Amphibian2ColorGenerator
 {
-    // TA Keys
-    private static final TextAttributesKey importKey    = TextAttributesKey.createTextAttributesKey("IMPORT_KEY");
-    private static final TextAttributesKey methodKey    = TextAttributesKey.createTextAttributesKey("METHOD_KEY");
-    private static final TextAttributesKey statementKey = TextAttributesKey.createTextAttributesKey("STMT_KEY");
-    private static final TextAttributesKey classKey     = TextAttributesKey.createTextAttributesKey("CLASS_KEY");
-    private static final TextAttributesKey conditionKey = TextAttributesKey.createTextAttributesKey("COND_KEY");
-
-    // Color constants
-    private static final Color importColor    = new Color(0x33F6F8F7, true);
-    private static final Color methodColor    = new Color(0x33E59B05, true);
-    private static final Color statementColor = new Color(0x336FD2E5, true);
-    private static final Color classColor     = new Color(0x33A861E0, true);
-    private static final Color conditionColor = new Color(0x33E06185, true);
-
-    public static void schemeChange(EditorColorsScheme scheme)
+    // Attributes of every block kind in the current global scheme, republished on every scheme change
+    private static volatile Amphibian2Palette palette;
+
+    // Reused by the annotator, which is called for one element at a time on each daemon thread
+    private static final ThreadLocal<Amphibian2SpanCollector> COLLECTOR = ThreadLocal.withInitial(Amphibian2SpanCollector::new);
+
+    public static void schemeChange()
+    {
+        // Rebuild the palette against the new scheme and publish it in a single write
+        Amphibian2Metrics.schemeLookup();
+        palette = Amphibian2Palette.create(EditorColorsManager.getInstance().getGlobalScheme());
+    }
+
+    @NotNull
+    public static Amphibian2Palette getPalette()
     {
-        // TODO: update with all text attribute keys
-        // On a scheme change, update with the annotations
-        scheme = EditorColorsManager.getInstance().getGlobalScheme();
+        Amphibian2Metrics.schemeLookup();
+        Amphibian2Palette current = palette;
 
-        TextAttributes ta = scheme.getAttributes(importKey);
-        ta.setBackgroundColor(importColor);
+        if (current == null)
+        {
+            // Lazily build the first palette; a racing build produces an equivalent snapshot
+            current = Amphibian2Palette.create(EditorColorsManager.getInstance().getGlobalScheme());
+            palette = current;
+        }
 
-        scheme.setAttributes(importKey, ta);
+        return current;
     }
 
     public static void getBlockColor(@NotNull PsiElement element, @NotNull AnnotationHolder holder)
     {
-        // For each element of the code, get the correct block color
-        if (element instanceof PsiImportStatement)
+        // Get the block provider of the element's language
+        Amphibian2BlockProvider provider = Amphibian2BlockProvider.forLanguage(element.getLanguage());
+
+        if (provider == null)
+        {
+            // Return right away for languages without blocks
+            return;
+        }
+
+        // Collect the spans of this element, merging the pieces that touch
+        Amphibian2SpanCollector collector = COLLECTOR.get();
+
+        try
+        {
+            element.accept(provider.createVisitor(collector, Amphibian2ColoringLevel.FULL));
+
+            if (collector.isEmpty())
+            {
+                return;
+            }
+
+            Amphibian2Metrics.Record metrics = Amphibian2Metrics.current();
+
+            if (metrics != null)
+            {
+                metrics.elementVisited();
+            }
+
+            // Annotate the merged spans with the key of each block kind, which the editor looks up in its scheme
+            collector.flush((start, end, kind) -> holder.newSilentAnnotation(HighlightSeverity.INFORMATION)
+                    .range(TextRange.create(start, end))
+                    .textAttributes(kind.getKey())
+                    .create());
+
+            if (metrics != null)
+            {
+                metrics.addAnnotations(collector.getLastFlushCount());
+            }
+        }
+        finally
+        {
+            // Drop whatever a cancelled element left behind, so the next element on this thread starts empty
+            collector.clear();
+        }
+    }
+
+    public static void getFileBlockColor(@NotNull PsiFile file, @NotNull Amphibian2SpanSink sink)
+    {
+        getFileBlockColor(file, file.getTextRange(), sink);
+    }
+
+    public static void getFileBlockColor(@NotNull PsiFile file, @NotNull TextRange range, @NotNull Amphibian2SpanSink sink)
+    {
+        getFileBlockColor(file, range, Amphibian2ColoringLevel.FULL, sink, null);
+    }
+
+    public static void getFileBlockColor(@NotNull PsiFile file, @NotNull TextRange range,
+                                         @NotNull Amphibian2ColoringLevel level, @NotNull Amphibian2SpanSink sink)
+    {
+        getFileBlockColor(file, range, level, sink, null);
+    }
+
+    public static boolean getFileBlockColor(@NotNull PsiFile file, @NotNull TextRange range,
+                                            @NotNull Amphibian2ColoringLevel level, @NotNull Amphibian2Budget budget)
+    {
+        // Returns false when the budget ran out before the whole range was colored
+        return getFileBlockColor(file, range, level, budget, budget);
+    }
+
+    public static void getFileBlockColor(@NotNull PsiFile file, @NotNull Amphibian2ColoringLevel level,
+                                         @NotNull Amphibian2SpanSink sink, @NotNull Set<PsiElement> skipped)
+    {
+        getTreeBlockColor(file, file.getTextRange(), level, sink, null, skipped);
+    }
+
+    public static boolean getFileBlockColor(@NotNull PsiFile file, @NotNull Amphibian2ColoringLevel level,
+                                            @NotNull Amphibian2Budget budget, @NotNull Set<PsiElement> skipped)
+    {
+        // Colors the file without the subtrees of the skipped elements, which are colored separately
+        return getTreeBlockColor(file, file.getTextRange(), level, budget, budget, skipped);
+    }
+
+    private static boolean getFileBlockColor(@NotNull PsiFile file, @NotNull TextRange range, @NotNull Amphibian2ColoringLevel level,
+                                             @NotNull Amphibian2SpanSink sink, @Nullable Amphibian2Budget budget)
+    {
+        return getTreeBlockColor(file, range, level, sink, budget, Collections.emptySet());
+    }
+
+    public static void getTreeBlockColor(@NotNull PsiElement root, @NotNull Amphibian2ColoringLevel level,
+                                         @NotNull Amphibian2SpanSink sink)
+    {
+        getTreeBlockColor(root, root.getTextRange(), level, sink, null, Collections.emptySet());
+    }
+
+    public static boolean getTreeBlockColor(@NotNull PsiElement root, @NotNull Amphibian2ColoringLevel level,
+                                            @NotNull Amphibian2Budget budget)
+    {
+        // Returns false when the budget ran out before the whole subtree was colored
+        return getTreeBlockColor(root, root.getTextRange(), level, budget, budget, Collections.emptySet());
+    }
+
+    private static boolean getTreeBlockColor(@NotNull PsiElement root, @NotNull TextRange range, @NotNull Amphibian2ColoringLevel level,
+                                             @NotNull Amphibian2SpanSink sink, @Nullable Amphibian2Budget budget,
+                                             @NotNull Set<PsiElement> skipped)
+    {
+        // Get the block provider of the root's language
+        Amphibian2BlockProvider provider = Amphibian2BlockProvider.forLanguage(root.getLanguage());
+
+        if (provider == null)
+        {
+            // Return right away for languages without blocks
+            return true;
+        }
+
+        PsiElementVisitor blockVisitor = provider.createVisitor(sink, level);
+        Amphibian2Metrics.Record metrics = Amphibian2Metrics.current();
+
+        // Walk the tree once, collecting the spans of every element touching the range
+        root.accept(new PsiRecursiveElementWalkingVisitor()
+        {
+            @Override
+            public void visitElement(PsiElement element)
+            {
+                ProgressManager.checkCanceled();
+
+                if (!element.getTextRange().intersects(range) || skipped.contains(element))
+                {
+                    // Skip the whole subtree when it is outside the range or colored by someone else
+                    return;
+                }
+
+                if (budget != null && !budget.elementVisited())
+                {
+                    // Stop as soon as the budget is spent
+                    stopWalking();
+                    return;
+                }
+
+                if (metrics != null)
+                {
+                    metrics.elementVisited();
+                }
+
+                sink.startElement(element);
+                element.accept(blockVisitor);
+                super.visitElement(element);
+            }
+        });
+
+        return budget == null || !budget.isExhausted();
+    }
+
+    public static void getBlockColor(@NotNull PsiElement element, @NotNull Amphibian2SpanSink sink)
+    {
+        // Get the correct block color of a single Java element
+        element.accept(createJavaVisitor(sink, Amphibian2ColoringLevel.FULL));
+    }
+
+    @NotNull
+    public static JavaElementVisitor createJavaVisitor(@NotNull Amphibian2SpanSink sink, @NotNull Amphibian2ColoringLevel level)
+    {
+        return new JavaBlockVisitor(sink, level);
+    }
+
+    private static final class JavaBlockVisitor extends JavaElementVisitor
+    {
+        private final Amphibian2SpanSink sink;
+        private final Amphibian2ColoringLevel level;
+
+        // The metrics of the pass this visitor belongs to, if they are collected
+        private final Amphibian2Metrics.Record metrics = Amphibian2Metrics.current();
+
+        private JavaBlockVisitor(@NotNull Amphibian2SpanSink sink, @NotNull Amphibian2ColoringLevel level)
+        {
+            this.sink = sink;
+            this.level = level;
+        }
+
+        @Override
+        public void visitImportStatement(PsiImportStatement statement)
         {
             // Get the import color
-            getImportBlockColor(element, holder);
+            long start = Amphibian2Metrics.start(metrics);
+            getImportBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.IMPORT, start);
         }
-        else if (element instanceof PsiClass)
+
+        @Override
+        public void visitClass(PsiClass aClass)
         {
             // Get the class color
-            getClassBlockColor((PsiClass) element, holder);
+            long start = Amphibian2Metrics.start(metrics);
+            getClassBlockColor(aClass, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.CLASS, start);
         }
-        else if (element instanceof PsiMethod)
+
+        @Override
+        public void visitMethod(PsiMethod method)
         {
             // Get the method color
-            getMethodBlockColor((PsiMethod) element, holder);
+            long start = Amphibian2Metrics.start(metrics);
+            getMethodBlockColor(method, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.METHOD, start);
         }
-        else if (element instanceof PsiConditionalLoopStatement)
-        {
-            // Get the condition color for the generic conditions for loops
-            getConditionBlockColor((PsiConditionalLoopStatement) element, holder);
 
-            if (element instanceof PsiWhileStatement)
+        @Override
+        public void visitWhileStatement(PsiWhileStatement statement)
+        {
+            if (!level.colorsControlFlow())
             {
-                // Get the condition color specific to while loops
-                getWhileBlockColor((PsiWhileStatement) element, holder);
+                return;
             }
-            else if (element instanceof PsiDoWhileStatement)
+
+            // Get the condition color for the generic conditions for loops, then the one specific to while loops
+            long start = Amphibian2Metrics.start(metrics);
+            getConditionBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.CONDITION, start);
+
+            start = Amphibian2Metrics.start(metrics);
+            getWhileBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.WHILE, start);
+        }
+
+        @Override
+        public void visitDoWhileStatement(PsiDoWhileStatement statement)
+        {
+            if (!level.colorsControlFlow())
             {
-                // Get the condition color specific to do while loops
-                getDoWhileBlockColor((PsiDoWhileStatement) element, holder);
+                return;
             }
-            else if (element instanceof PsiForStatement)
+
+            // Get the condition color for the generic conditions for loops, then the one specific to do while loops
+            long start = Amphibian2Metrics.start(metrics);
+            getConditionBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.CONDITION, start);
+
+            start = Amphibian2Metrics.start(metrics);
+            getDoWhileBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.DO_WHILE, start);
+        }
+
+        @Override
+        public void visitForStatement(PsiForStatement statement)
+        {
+            if (!level.colorsControlFlow())
             {
-                // Get the condition color specific to for loops
-                getForBlockColor((PsiForStatement) element, holder);
+                return;
             }
+
+            // Get the condition color for the generic conditions for loops, then the one specific to for loops
+            long start = Amphibian2Metrics.start(metrics);
+            getConditionBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.CONDITION, start);
+
+            start = Amphibian2Metrics.start(metrics);
+            getForBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.FOR, start);
         }
-        else if (element instanceof PsiIfStatement)
+
+        @Override
+        public void visitIfStatement(PsiIfStatement statement)
         {
+            if (!level.colorsControlFlow())
+            {
+                return;
+            }
+
             // Get the condition color specific to if statements
-            getIfBlockColor((PsiIfStatement) element, holder);
+            long start = Amphibian2Metrics.start(metrics);
+            getIfBlockColor(statement, sink, level.colorsStatements());
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.IF, start);
         }
-        else if (element instanceof  PsiTryStatement)
+
+        @Override
+        public void visitTryStatement(PsiTryStatement statement)
         {
+            if (!level.colorsControlFlow())
+            {
+                return;
+            }
+
             // Get the condition color specific to try catch blocks
-            getTryBlockColor((PsiTryStatement) element, holder);
+            long start = Amphibian2Metrics.start(metrics);
+            getTryBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.TRY, start);
         }
-        else if (element instanceof PsiDeclarationStatement || element instanceof PsiExpressionStatement
-            || element instanceof PsiReturnStatement || element instanceof PsiBreakStatement || element instanceof PsiContinueStatement)
+
+        // Get generic statement color for declaration, expression, and keyword (i.e. break, return) statements
+        @Override
+        public void visitDeclarationStatement(PsiDeclarationStatement statement)
         {
-            // Get generic statement color for declaration, expression, and keyword (i.e. break, return) statements
-            getStatementBlockColor(element, holder);
+            if (!level.colorsStatements())
+            {
+                return;
+            }
+
+            long start = Amphibian2Metrics.start(metrics);
+            getStatementBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.STATEMENT, start);
         }
-    }
 
-    private static void createAnnotation(@NotNull AnnotationHolder holder, TextRange range, Color color)
-    {
-        // Get the global color scheme
-        EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
+        @Override
+        public void visitExpressionStatement(PsiExpressionStatement statement)
+        {
+            if (!level.colorsStatements())
+            {
+                return;
+            }
 
-        // Get the default background color of the scheme
-        Color bgColor = scheme.getDefaultBackground();
+            long start = Amphibian2Metrics.start(metrics);
+            getStatementBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.STATEMENT, start);
+        }
+
+        @Override
+        public void visitReturnStatement(PsiReturnStatement statement)
+        {
+            if (!level.colorsStatements())
+            {
+                return;
+            }
 
-        // Convert the two colors to an array of size 4 each, with each index representing an R, G, B, or A value
-        float[] bgArray = bgColor.getRGBComponents(null);
-        float[] colorArray = color.getRGBComponents(null);
+            long start = Amphibian2Metrics.start(metrics);
+            getStatementBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.STATEMENT, start);
+        }
 
-        // Alpha value to use is the alpha value of the color passed in
-        float alpha = colorArray[3];
+        @Override
+        public void visitBreakStatement(PsiBreakStatement statement)
+        {
+            if (!level.colorsStatements())
+            {
+                return;
+            }
 
-        // Create an new RGBA array for the result of blending the background with the passed in color together
-        float[] newColor = new float[4];
+            long start = Amphibian2Metrics.start(metrics);
+            getStatementBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.STATEMENT, start);
+        }
 
-        // Iterate over each RGB component of the colors
-        for (int i = 0 ; i < newColor.length; i++)
+        @Override
+        public void visitContinueStatement(PsiContinueStatement statement)
         {
-            // Calculate the blend of the two colors including the alpha value
-            newColor[i] = colorArray[i] * alpha + bgArray[i] * (1 - alpha);
+            if (!level.colorsStatements())
+            {
+                return;
+            }
+
+            long start = Amphibian2Metrics.start(metrics);
+            getStatementBlockColor(statement, sink);
+            Amphibian2Metrics.stop(metrics, Amphibian2Metrics.Handler.STATEMENT, start);
         }
+    }
 
-        // Create an annotation given the range and blended color
-        holder.newSilentAnnotation(HighlightSeverity.INFORMATION)
-                .range(range)
-                .enforcedTextAttributes(new TextAttributes(null, new Color(newColor[0], newColor[1], newColor[2]),
-                        null, EffectType.BOXED, Font.PLAIN))
-                .create();
+    private static void createAnnotation(@NotNull Amphibian2SpanSink sink, TextRange range, Amphibian2BlockKind kind)
+    {
+        // Hand the span to the sink, which decides how it ends up in the editor
+        sink.addSpan(range.getStartOffset(), range.getEndOffset(), kind);
     }
 
-    private static void getImportBlockColor(@NotNull PsiElement element, @NotNull AnnotationHolder holder)
+    private static void getImportBlockColor(@NotNull PsiElement element, @NotNull Amphibian2SpanSink sink)
     {
         // Get the range of the import text
         TextRange range = TextRange.from(element.getTextRange().getStartOffset(), element.getTextLength());
-        createAnnotation(holder, range, importColor);
+        createAnnotation(sink, range, Amphibian2BlockKind.IMPORT);
     }
 
-    private static void getClassBlockColor(@NotNull PsiClass clazz, @NotNull AnnotationHolder holder)
+    private static void getClassBlockColor(@NotNull PsiClass clazz, @NotNull Amphibian2SpanSink sink)
     {
         // Get the children elements which are all the elements included in a class definition
         PsiElement[] elements = clazz.getChildren();
@@ -147,11 +419,11 @@ public class Amphibian2ColorGenerator
         // Iterate over each child element
         for (PsiElement e : elements)
         {
-            if (e instanceof PsiModifierList || (e instanceof PsiKeyword && e.getText().equals("class")))
+            if (e instanceof PsiModifierList || (e instanceof PsiKeyword && ((PsiKeyword) e).getTokenType() == JavaTokenType.CLASS_KEYWORD))
             {
                 // If we have a modifier (i.e. public) or the class keyword get the range of text + 1 for whitespace
                 TextRange range = TextRange.from(e.getTextRange().getStartOffset(), e.getTextLength() + 1);
-                createAnnotation(holder, range, classColor);
+                createAnnotation(sink, range, Amphibian2BlockKind.CLASS);
             }
         }
 
@@ -162,7 +434,7 @@ public class Amphibian2ColorGenerator
         {
             // If the name exists, color it
             TextRange nameRange = TextRange.from(name.getTextRange().getStartOffset(), name.getTextLength());
-            createAnnotation(holder, nameRange, classColor);
+            createAnnotation(sink, nameRange, Amphibian2BlockKind.CLASS);
         }
 
         // Get the left brace
@@ -171,7 +443,7 @@ public class Amphibian2ColorGenerator
         if (lbrace != null)
         {
             TextRange lbRange = TextRange.from(lbrace.getTextRange().getStartOffset(), lbrace.getTextLength());
-            createAnnotation(holder, lbRange, classColor);
+            createAnnotation(sink, lbRange, Amphibian2BlockKind.CLASS);
         }
 
         // Get the right brace
@@ -180,28 +452,28 @@ public class Amphibian2ColorGenerator
         if (rbrace != null)
         {
             TextRange rbRange = TextRange.from(rbrace.getTextRange().getStartOffset(), rbrace.getTextLength());
-            createAnnotation(holder, rbRange, classColor);
+            createAnnotation(sink, rbRange, Amphibian2BlockKind.CLASS);
         }
 
-        // Get all the fields declared in the class
-        PsiField[] fields = clazz.getAllFields();
+        // Get only the fields declared in this class, which never needs resolving the superclasses
+        PsiField[] fields = clazz.getFields();
 
         for (PsiField field : fields)
         {
             // Color each field, if any
             TextRange fieldRange = TextRange.from(field.getTextRange().getStartOffset(), field.getTextLength());
-            createAnnotation(holder, fieldRange, classColor);
+            createAnnotation(sink, fieldRange, Amphibian2BlockKind.CLASS);
         }
     }
 
-    private static void getMethodBlockColor(@NotNull PsiMethod method, @NotNull AnnotationHolder holder)
+    private static void getMethodBlockColor(@NotNull PsiMethod method, @NotNull Amphibian2SpanSink sink)
     {
         // Get the modifier list
         PsiModifierList modifierList = method.getModifierList();
 
         // Get the text range of the modifier list
         TextRange modRange = TextRange.from(modifierList.getTextRange().getStartOffset(), modifierList.getTextLength() + 1);
-        createAnnotation(holder, modRange, methodColor);
+        createAnnotation(sink, modRange, Amphibian2BlockKind.METHOD);
 
         // Get the return type
         PsiTypeElement ret = method.getReturnTypeElement();
@@ -210,7 +482,7 @@ public class Amphibian2ColorGenerator
         {
             // Get the text range of the return
             TextRange retRange = TextRange.from(ret.getTextRange().getStartOffset(), ret.getTextLength() + 1);
-            createAnnotation(holder, retRange, methodColor);
+            createAnnotation(sink, retRange, Amphibian2BlockKind.METHOD);
         }
 
         // Get the name of the method
@@ -220,7 +492,7 @@ public class Amphibian2ColorGenerator
         {
             // Get the text range of the method name
             TextRange idRange = TextRange.from(id.getTextRange().getStartOffset(), id.getTextLength());
-            createAnnotation(holder, idRange, methodColor);
+            createAnnotation(sink, idRange, Amphibian2BlockKind.METHOD);
         }
 
         // Get the parameters
@@ -228,7 +500,7 @@ public class Amphibian2ColorGenerator
 
         // Get the text range of the parameter list
         TextRange paramRange = TextRange.from(parameterList.getTextRange().getStartOffset(), parameterList.getTextLength());
-        createAnnotation(holder, paramRange, methodColor);
+        createAnnotation(sink, paramRange, Amphibian2BlockKind.METHOD);
 
         // Get the body code block
         PsiCodeBlock body = method.getBody();
@@ -236,12 +508,12 @@ public class Amphibian2ColorGenerator
         if (body != null)
         {
             // Color the braces
-            getBraceBlockColor(body, holder, methodColor);
+            getBraceBlockColor(body, sink, Amphibian2BlockKind.METHOD);
         }
 
     }
 
-    private static void getConditionBlockColor(@NotNull PsiConditionalLoopStatement element, @NotNull AnnotationHolder holder)
+    private static void getConditionBlockColor(@NotNull PsiConditionalLoopStatement element, @NotNull Amphibian2SpanSink sink)
     {
         // Get the children element
         PsiElement[] elements = element.getChildren();
@@ -253,13 +525,13 @@ public class Amphibian2ColorGenerator
             {
                 // Get the range + 1 for whitespace of the keyword
                 TextRange range = TextRange.from(e.getTextRange().getStartOffset(), e.getTextLength() + 1);
-                createAnnotation(holder, range, conditionColor);
+                createAnnotation(sink, range, Amphibian2BlockKind.CONDITION);
             }
             else if (e instanceof PsiBlockStatement)
             {
                 // Get the code block for the right and left brace tokens
                 PsiCodeBlock codeBlock = ((PsiBlockStatement) e).getCodeBlock();
-                getBraceBlockColor(codeBlock, holder, conditionColor);
+                getBraceBlockColor(codeBlock, sink, Amphibian2BlockKind.CONDITION);
             }
         }
 
@@ -269,11 +541,11 @@ public class Amphibian2ColorGenerator
         if (expression != null)
         {
             TextRange exprRange = TextRange.from(expression.getTextRange().getStartOffset(), expression.getTextLength());
-            createAnnotation(holder, exprRange, conditionColor);
+            createAnnotation(sink, exprRange, Amphibian2BlockKind.CONDITION);
         }
     }
 
-    private static void getWhileBlockColor(@NotNull PsiWhileStatement whileStatement, @NotNull AnnotationHolder holder)
+    private static void getWhileBlockColor(@NotNull PsiWhileStatement whileStatement, @NotNull Amphibian2SpanSink sink)
     {
         // Get the left parentheses
         PsiElement lParenth = whileStatement.getLParenth();
@@ -281,7 +553,7 @@ public class Amphibian2ColorGenerator
         if (lParenth != null)
         {
             TextRange lPRange = TextRange.from(lParenth.getTextRange().getStartOffset(), lParenth.getTextLength());
-            createAnnotation(holder, lPRange, conditionColor);
+            createAnnotation(sink, lPRange, Amphibian2BlockKind.CONDITION);
         }
 
         // Get the right parentheses
@@ -290,11 +562,11 @@ public class Amphibian2ColorGenerator
         if (rParenth != null)
         {
             TextRange rPRange = TextRange.from(rParenth.getTextRange().getStartOffset(), rParenth.getTextLength());
-            createAnnotation(holder, rPRange, conditionColor);
+            createAnnotation(sink, rPRange, Amphibian2BlockKind.CONDITION);
         }
     }
 
-    private static void getDoWhileBlockColor(@NotNull PsiDoWhileStatement doWhileStatement, @NotNull AnnotationHolder holder)
+    private static void getDoWhileBlockColor(@NotNull PsiDoWhileStatement doWhileStatement, @NotNull Amphibian2SpanSink sink)
     {
         // Get the left parentheses
         PsiElement lParenth = doWhileStatement.getLParenth();
@@ -302,7 +574,7 @@ public class Amphibian2ColorGenerator
         if (lParenth != null)
         {
             TextRange lPRange = TextRange.from(lParenth.getTextRange().getStartOffset(), lParenth.getTextLength());
-            createAnnotation(holder, lPRange, conditionColor);
+            createAnnotation(sink, lPRange, Amphibian2BlockKind.CONDITION);
         }
 
         // Get the right parentheses
@@ -311,11 +583,11 @@ public class Amphibian2ColorGenerator
         if (rParenth != null)
         {
             TextRange rPRange = TextRange.from(rParenth.getTextRange().getStartOffset(), rParenth.getTextLength());
-            createAnnotation(holder, rPRange, conditionColor);
+            createAnnotation(sink, rPRange, Amphibian2BlockKind.CONDITION);
         }
     }
 
-    private static void getForBlockColor(@NotNull PsiForStatement forStatement, @NotNull AnnotationHolder holder)
+    private static void getForBlockColor(@NotNull PsiForStatement forStatement, @NotNull Amphibian2SpanSink sink)
     {
         // Get the initialization statement
         PsiStatement init = forStatement.getInitialization();
@@ -324,7 +596,7 @@ public class Amphibian2ColorGenerator
         {
             // If there is an initialization, color it
             TextRange initRange = TextRange.from(init.getTextRange().getStartOffset(), init.getTextLength());
-            createAnnotation(holder, initRange, conditionColor);
+            createAnnotation(sink, initRange, Amphibian2BlockKind.CONDITION);
         }
 
         // Get the update statement
@@ -333,7 +605,7 @@ public class Amphibian2ColorGenerator
         if (update != null)
         {
             TextRange updateRange = TextRange.from(update.getTextRange().getStartOffset(), update.getTextLength());
-            createAnnotation(holder, updateRange, conditionColor);
+            createAnnotation(sink, updateRange, Amphibian2BlockKind.CONDITION);
         }
 
         // Get the left parentheses
@@ -342,7 +614,7 @@ public class Amphibian2ColorGenerator
         if (lParenth != null)
         {
             TextRange lPRange = TextRange.from(lParenth.getTextRange().getStartOffset(), lParenth.getTextLength());
-            createAnnotation(holder, lPRange, conditionColor);
+            createAnnotation(sink, lPRange, Amphibian2BlockKind.CONDITION);
         }
 
         // Get the right parentheses
@@ -351,17 +623,13 @@ public class Amphibian2ColorGenerator
         if (rParenth != null)
         {
             TextRange rPRange = TextRange.from(rParenth.getTextRange().getStartOffset(), rParenth.getTextLength());
-            createAnnotation(holder, rPRange, conditionColor);
+            createAnnotation(sink, rPRange, Amphibian2BlockKind.CONDITION);
         }
 
     }
 
-    private static void getIfBlockColor(@NotNull PsiIfStatement ifStatement, @NotNull AnnotationHolder holder)
+    private static void getIfBlockColor(@NotNull PsiIfStatement ifStatement, @NotNull Amphibian2SpanSink sink, boolean indents)
     {
-        Project project = ifStatement.getProject();
-        PsiFile file = ifStatement.getContainingFile();
-        Document document = PsiDocumentManager.getInstance(project).getDocument(file);
-
         // Get the children element
         PsiElement[] elements = ifStatement.getChildren();
 
@@ -372,16 +640,19 @@ public class Amphibian2ColorGenerator
             {
                 // Get the range + 1 for whitespace of the keyword
                 TextRange range = TextRange.from(e.getTextRange().getStartOffset(), e.getTextLength() + 1);
-                createAnnotation(holder, range, conditionColor);
+                createAnnotation(sink, range, Amphibian2BlockKind.CONDITION);
             }
             else if (e instanceof PsiBlockStatement)
             {
                 // Get the code block for the right and left brace tokens
                 PsiCodeBlock codeBlock = ((PsiBlockStatement) e).getCodeBlock();
-                getBraceBlockColor(codeBlock, holder, conditionColor);
+                getBraceBlockColor(codeBlock, sink, Amphibian2BlockKind.CONDITION);
 
-                // Get the indent color
-                getIndentBlockColor(codeBlock, holder, document, conditionColor);
+                if (indents)
+                {
+                    // Get the indent color
+                    getIndentBlockColor(codeBlock, sink, Amphibian2BlockKind.CONDITION);
+                }
             }
         }
 
@@ -391,7 +662,7 @@ public class Amphibian2ColorGenerator
         if (expression != null)
         {
             TextRange exprRange = TextRange.from(expression.getTextRange().getStartOffset(), expression.getTextLength());
-            createAnnotation(holder, exprRange, conditionColor);
+            createAnnotation(sink, exprRange, Amphibian2BlockKind.CONDITION);
         }
 
         // Get the left parentheses
@@ -400,7 +671,7 @@ public class Amphibian2ColorGenerator
         if (lParenth != null)
         {
             TextRange lPRange = TextRange.from(lParenth.getTextRange().getStartOffset(), lParenth.getTextLength());
-            createAnnotation(holder, lPRange, conditionColor);
+            createAnnotation(sink, lPRange, Amphibian2BlockKind.CONDITION);
         }
 
         // Get the right parentheses
@@ -409,11 +680,11 @@ public class Amphibian2ColorGenerator
         if (rParenth != null)
         {
             TextRange rPRange = TextRange.from(rParenth.getTextRange().getStartOffset(), rParenth.getTextLength());
-            createAnnotation(holder, rPRange, conditionColor);
+            createAnnotation(sink, rPRange, Amphibian2BlockKind.CONDITION);
         }
     }
 
-    private static void getTryBlockColor(@NotNull PsiTryStatement tryStatement, @NotNull AnnotationHolder holder)
+    private static void getTryBlockColor(@NotNull PsiTryStatement tryStatement, @NotNull Amphibian2SpanSink sink)
     {
         // Get the children elements
         PsiElement[] elements = tryStatement.getChildren();
@@ -424,7 +695,7 @@ public class Amphibian2ColorGenerator
             {
                 // Color the try keyword
                 TextRange range = TextRange.from(element.getTextRange().getStartOffset(), element.getTextLength() + 1);
-                createAnnotation(holder, range, conditionColor);
+                createAnnotation(sink, range, Amphibian2BlockKind.CONDITION);
             }
         }
 
@@ -433,7 +704,7 @@ public class Amphibian2ColorGenerator
         if (tryBlock != null)
         {
             // Color the braces on the try block portion
-            getBraceBlockColor(tryBlock, holder, conditionColor);
+            getBraceBlockColor(tryBlock, sink, Amphibian2BlockKind.CONDITION);
         }
 
         // Get all of the catch sections
@@ -450,7 +721,7 @@ public class Amphibian2ColorGenerator
                 {
                     // Color the catch keyword
                     TextRange range = TextRange.from(catchElement.getTextRange().getStartOffset(), catchElement.getTextLength() + 1);
-                    createAnnotation(holder, range, conditionColor);
+                    createAnnotation(sink, range, Amphibian2BlockKind.CONDITION);
                 }
             }
 
@@ -460,7 +731,7 @@ public class Amphibian2ColorGenerator
             if (parameter != null)
             {
                 TextRange range = TextRange.from(parameter.getTextRange().getStartOffset(), parameter.getTextLength() + 1);
-                createAnnotation(holder, range, conditionColor);
+                createAnnotation(sink, range, Amphibian2BlockKind.CONDITION);
             }
 
             // Get the left parentheses
@@ -469,7 +740,7 @@ public class Amphibian2ColorGenerator
             if (lParenth != null)
             {
                 TextRange lPRange = TextRange.from(lParenth.getTextRange().getStartOffset(), lParenth.getTextLength());
-                createAnnotation(holder, lPRange, conditionColor);
+                createAnnotation(sink, lPRange, Amphibian2BlockKind.CONDITION);
             }
 
             // Get the right parentheses
@@ -478,7 +749,7 @@ public class Amphibian2ColorGenerator
             if (rParenth != null)
             {
                 TextRange rPRange = TextRange.from(rParenth.getTextRange().getStartOffset(), rParenth.getTextLength());
-                createAnnotation(holder, rPRange, conditionColor);
+                createAnnotation(sink, rPRange, Amphibian2BlockKind.CONDITION);
             }
 
             // Get the catch code block
@@ -487,12 +758,12 @@ public class Amphibian2ColorGenerator
             if (codeBlock != null)
             {
                 // Color the catch code block braces
-                getBraceBlockColor(codeBlock, holder, conditionColor);
+                getBraceBlockColor(codeBlock, sink, Amphibian2BlockKind.CONDITION);
             }
         }
     }
 
-    private static void getBraceBlockColor(@NotNull PsiCodeBlock codeBlock, @NotNull AnnotationHolder holder, Color color)
+    private static void getBraceBlockColor(@NotNull PsiCodeBlock codeBlock, @NotNull Amphibian2SpanSink sink, Amphibian2BlockKind kind)
     {
         // Get the left brace
         PsiJavaToken lBrace = codeBlock.getLBrace();
@@ -501,7 +772,7 @@ public class Amphibian2ColorGenerator
         {
             // If the left brace exists color it with the designated color
             TextRange lBRange = TextRange.from(lBrace.getTextRange().getStartOffset(), lBrace.getTextLength());
-            createAnnotation(holder, lBRange, color);
+            createAnnotation(sink, lBRange, kind);
         }
 
         // Get the right brace
@@ -511,75 +782,28 @@ public class Amphibian2ColorGenerator
         {
             // If the right brace exists color it with the designated color
             TextRange rBRange = TextRange.from(rBrace.getTextRange().getStartOffset(), rBrace.getTextLength());
-            createAnnotation(holder, rBRange, color);
+            createAnnotation(sink, rBRange, kind);
         }
     }
 
-    private static void getIndentBlockColor(@NotNull PsiCodeBlock codeBlock, @NotNull AnnotationHolder holder,
-                                            Document document, Color color)
+    private static void getIndentBlockColor(@NotNull PsiCodeBlock codeBlock, @NotNull Amphibian2SpanSink sink,
+                                            Amphibian2BlockKind kind)
     {
-        if (document == null)
-        {
-            // Return if the document does not exist
-            return;
-        }
-
-        // Get the statements in the code block
-        PsiStatement[] statements = codeBlock.getStatements();
-
-        // Get the start and end offset of the code block (not including the braces)
-        int startOffset = statements[0].getTextRange().getStartOffset();
-        int endOffset = statements[statements.length - 1].getTextRange().getEndOffset();
+        // Get the indents of the lines this block owns, leaving out the lines of nested if blocks
+        Amphibian2IndentMap indentMap = Amphibian2IndentMap.forBlock(codeBlock);
 
-        // Get the line numbers of the starting and ending lines of the code block
-        int startLine = document.getLineNumber(startOffset);
-        int endLine = document.getLineNumber(endOffset);
-
-        // Iterate over each line in the code block
-        for (int i = startLine; i <= endLine; i++)
+        // Create an annotation for the indent of each line
+        for (int i = 0; i < indentMap.size(); i++)
         {
-            // Get the start and end offset of the current line
-            int start = document.getLineStartOffset(i);
-            int end = document.getLineEndOffset(i);
-
-            // Get the text of the line based on the offsets
-            String text = document.getText(TextRange.from(start, end - start));
-
-            int j = 0;
-            for (; j < text.length(); j++)
-            {
-                // Count the number of space or tab characters for the indent
-                if (((int) text.charAt(j) != 32) && ((int) text.charAt(j) != 9))
-                {
-                    // Count until a character that isn't a space or tab is encountered
-                    break;
-                }
-            }
-
-            // Create an annotation for the indent of the line
-            TextRange range = TextRange.from(start, j);
-            createAnnotation(holder, range, color);
+            int start = indentMap.getLineStartOffset(i);
+            sink.addSpan(start, start + indentMap.getIndentWidth(i), kind);
         }
     }
 
-    private static void getStatementBlockColor(@NotNull PsiElement element, @NotNull AnnotationHolder holder)
+    private static void getStatementBlockColor(@NotNull PsiElement element, @NotNull Amphibian2SpanSink sink)
     {
         // Get the range of the text
         TextRange range = TextRange.from(element.getTextRange().getStartOffset(), element.getTextLength());
-        createAnnotation(holder, range, statementColor);
+        createAnnotation(sink, range, Amphibian2BlockKind.STATEMENT);
     }
-
-    // TODO: remove or use if necessary
-//    public static void colorMethodBlock(@NotNull PsiElement element, @NotNull AnnotationHolder holder)
-//    {
-//        PsiElement[] children = element.getChildren();
-//        for (PsiElement child : children)
-//        {
-//            System.out.println(child);
-//        }
-//        PsiElement lastChild = element.getLastChild();
-//        int end = lastChild.getStartOffsetInParent();
-//        TextRange range = TextRange.from(element.getTextRange().getStartOffset(), end);
-//        createAnnotation(holder, range, methodColor);
-//    }
 }
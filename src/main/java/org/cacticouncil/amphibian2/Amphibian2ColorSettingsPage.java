@@ -0,0 +1,110 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.lang.java.JavaLanguage;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.fileTypes.SyntaxHighlighter;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterFactory;
+import com.intellij.openapi.options.colors.AttributesDescriptor;
+import com.intellij.openapi.options.colors.ColorDescriptor;
+import com.intellij.openapi.options.colors.ColorSettingsPage;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import javax.swing.*;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Amphibian2ColorSettingsPage implements ColorSettingsPage
+{
+    private static final AttributesDescriptor[] DESCRIPTORS = {
+            new AttributesDescriptor("Import", Amphibian2BlockKind.IMPORT.getKey()),
+            new AttributesDescriptor("Class", Amphibian2BlockKind.CLASS.getKey()),
+            new AttributesDescriptor("Method", Amphibian2BlockKind.METHOD.getKey()),
+            new AttributesDescriptor("Condition and loop", Amphibian2BlockKind.CONDITION.getKey()),
+            new AttributesDescriptor("Statement", Amphibian2BlockKind.STATEMENT.getKey()),
+    };
+
+    // Tags of the demo text, one per block kind
+    private static final Map<String, TextAttributesKey> TAGS = new HashMap<>();
+
+    static
+    {
+        TAGS.put("import", Amphibian2BlockKind.IMPORT.getKey());
+        TAGS.put("class", Amphibian2BlockKind.CLASS.getKey());
+        TAGS.put("method", Amphibian2BlockKind.METHOD.getKey());
+        TAGS.put("cond", Amphibian2BlockKind.CONDITION.getKey());
+        TAGS.put("stmt", Amphibian2BlockKind.STATEMENT.getKey());
+    }
+
+    @Nullable
+    @Override
+    public Icon getIcon()
+    {
+        return null;
+    }
+
+    @NotNull
+    @Override
+    public SyntaxHighlighter getHighlighter()
+    {
+        return SyntaxHighlighterFactory.getSyntaxHighlighter(JavaLanguage.INSTANCE, null, null);
+    }
+
+    @NotNull
+    @Override
+    public String getDemoText()
+    {
+        // Tagged with the merged spans Amphibian2ColorGenerator makes for this text: headers, braces, fields,
+        // statements and the indents of if blocks, while the rest of each line stays uncolored
+        return "<import>import java.util.List;</import>\n"
+                + "\n"
+                + "<class>public class Counter</class>\n"
+                + "<class>{</class>\n"
+                + "    <class>private int count;</class>\n"
+                + "\n"
+                + "    <method>public int count(List<String> names)</method>\n"
+                + "    <method>{</method>\n"
+                + "        <stmt>int i = 0;</stmt>\n"
+                + "\n"
+                + "        <cond>while (i < names.size())</cond>\n"
+                + "        <cond>{</cond>\n"
+                + "            <cond>if (!names.get(i).isEmpty())</cond>\n"
+                + "            <cond>{</cond>\n"
+                + "<cond>                </cond><stmt>count++;</stmt>\n"
+                + "            <cond>}</cond>\n"
+                + "\n"
+                + "            <stmt>i++;</stmt>\n"
+                + "        <cond>}</cond>\n"
+                + "\n"
+                + "        <stmt>return count;</stmt>\n"
+                + "    <method>}</method>\n"
+                + "<class>}</class>\n";
+    }
+
+    @Nullable
+    @Override
+    public Map<String, TextAttributesKey> getAdditionalHighlightingTagToDescriptorMap()
+    {
+        return TAGS;
+    }
+
+    @NotNull
+    @Override
+    public AttributesDescriptor[] getAttributeDescriptors()
+    {
+        return DESCRIPTORS;
+    }
+
+    @NotNull
+    @Override
+    public ColorDescriptor[] getColorDescriptors()
+    {
+        return ColorDescriptor.EMPTY_ARRAY;
+    }
+
+    @NotNull
+    @Override
+    public String getDisplayName()
+    {
+        return "Amphibian 2";
+    }
+}
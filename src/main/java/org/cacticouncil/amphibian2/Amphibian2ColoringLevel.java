@@ -0,0 +1,61 @@
+package org.cacticouncil.amphibian2;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+public enum Amphibian2ColoringLevel
+{
+    // Every block, statement and indent
+    FULL("full coloring"),
+
+    // Headers and braces of every block, without statements and indents
+    BLOCKS("block headers only"),
+
+    // Only imports and the headers of classes and methods
+    HEADERS("class and method headers only");
+
+    private final String description;
+
+    Amphibian2ColoringLevel(@NotNull String description)
+    {
+        this.description = description;
+    }
+
+    @NotNull
+    public String getDescription()
+    {
+        return description;
+    }
+
+    public boolean colorsStatements()
+    {
+        return this == FULL;
+    }
+
+    public boolean colorsControlFlow()
+    {
+        return this == FULL || this == BLOCKS;
+    }
+
+    public boolean colors(@NotNull Amphibian2BlockKind kind)
+    {
+        // Statements and control flow have kinds of their own, so a level can also be applied to finished spans
+        switch (kind)
+        {
+            case STATEMENT:
+                return colorsStatements();
+            case CONDITION:
+                return colorsControlFlow();
+            default:
+                return true;
+        }
+    }
+
+    @Nullable
+    public Amphibian2ColoringLevel reduce()
+    {
+        // Get the next cheaper level, if there is one
+        Amphibian2ColoringLevel[] levels = values();
+        return ordinal() + 1 < levels.length ? levels[ordinal() + 1] : null;
+    }
+}
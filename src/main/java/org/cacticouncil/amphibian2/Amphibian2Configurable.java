@@ -0,0 +1,169 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.openapi.options.Configurable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.ui.ComboBox;
+import com.intellij.ui.JBIntSpinner;
+import com.intellij.ui.components.JBCheckBox;
+import com.intellij.util.ui.FormBuilder;
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.Nullable;
+import javax.swing.*;
+
+public class Amphibian2Configurable implements Configurable
+{
+    private JBCheckBox legacyAnnotatorBox;
+    private JBCheckBox paintBlocksBox;
+    private JBCheckBox showOverviewBox;
+    private ComboBox<Amphibian2EditorPolicy> diffEditorsBox;
+    private ComboBox<Amphibian2EditorPolicy> previewEditorsBox;
+    private ComboBox<Amphibian2EditorPolicy> otherEditorsBox;
+    private JBCheckBox viewportOnlyBox;
+    private JBIntSpinner viewportMarginSpinner;
+    private JBIntSpinner warmUpFilesSpinner;
+    private JBIntSpinner parallelFileLinesSpinner;
+    private JBCheckBox collectMetricsBox;
+    private JBCheckBox shadowModeBox;
+    private JBIntSpinner largeFileLinesSpinner;
+    private JBIntSpinner largeFileElementsSpinner;
+    private JBIntSpinner annotationBudgetSpinner;
+
+    @Nls
+    @Override
+    public String getDisplayName()
+    {
+        return "Amphibian 2";
+    }
+
+    @Nullable
+    @Override
+    public JComponent createComponent()
+    {
+        legacyAnnotatorBox = new JBCheckBox("Use the legacy per-element annotator");
+        paintBlocksBox = new JBCheckBox("Paint blocks as nested backgrounds instead of highlighting tokens");
+        showOverviewBox = new JBCheckBox("Show the blocks of the file next to the scroll bar");
+        diffEditorsBox = new ComboBox<>(Amphibian2EditorPolicy.values());
+        previewEditorsBox = new ComboBox<>(Amphibian2EditorPolicy.values());
+        otherEditorsBox = new ComboBox<>(Amphibian2EditorPolicy.values());
+        viewportOnlyBox = new JBCheckBox("Only color the visible area of the editor");
+        viewportMarginSpinner = new JBIntSpinner(100, 0, 10000);
+        warmUpFilesSpinner = new JBIntSpinner(30, 0, 1000);
+        parallelFileLinesSpinner = new JBIntSpinner(10000, 100, Integer.MAX_VALUE, 1000);
+        collectMetricsBox = new JBCheckBox("Collect highlighting performance metrics");
+        shadowModeBox = new JBCheckBox("Check the block model against the legacy annotator (slow)");
+        largeFileLinesSpinner = new JBIntSpinner(20000, 100, Integer.MAX_VALUE, 1000);
+        largeFileElementsSpinner = new JBIntSpinner(1000000, 1000, Integer.MAX_VALUE, 10000);
+        annotationBudgetSpinner = new JBIntSpinner(100000, 100, Integer.MAX_VALUE, 1000);
+
+        return FormBuilder.createFormBuilder()
+                .addComponent(legacyAnnotatorBox)
+                .addComponent(paintBlocksBox)
+                .addComponent(showOverviewBox)
+                .addLabeledComponent("Diff viewers:", diffEditorsBox)
+                .addLabeledComponent("Previews:", previewEditorsBox)
+                .addLabeledComponent("Popups and other editors:", otherEditorsBox)
+                .addComponent(viewportOnlyBox)
+                .addLabeledComponent("Lines colored around the visible area:", viewportMarginSpinner)
+                .addLabeledComponent("Files prepared when a project opens:", warmUpFilesSpinner)
+                .addLabeledComponent("Color members in parallel in files longer than (lines):", parallelFileLinesSpinner)
+                .addComponent(collectMetricsBox)
+                .addComponent(shadowModeBox)
+                .addLabeledComponent("Reduce coloring of files longer than (lines):", largeFileLinesSpinner)
+                .addLabeledComponent("Reduce coloring after visiting (elements):", largeFileElementsSpinner)
+                .addLabeledComponent("Reduce coloring after creating (annotations):", annotationBudgetSpinner)
+                .addComponentFillVertically(new JPanel(), 0)
+                .getPanel();
+    }
+
+    @Override
+    public boolean isModified()
+    {
+        Amphibian2Settings settings = Amphibian2Settings.getInstance();
+        return legacyAnnotatorBox.isSelected() != settings.useLegacyAnnotator
+                || paintBlocksBox.isSelected() != settings.paintBlocks
+                || showOverviewBox.isSelected() != settings.showOverview
+                || diffEditorsBox.getSelectedItem() != settings.diffEditors
+                || previewEditorsBox.getSelectedItem() != settings.previewEditors
+                || otherEditorsBox.getSelectedItem() != settings.otherEditors
+                || viewportOnlyBox.isSelected() != settings.viewportOnly
+                || viewportMarginSpinner.getNumber() != settings.viewportMargin
+                || warmUpFilesSpinner.getNumber() != settings.warmUpFiles
+                || parallelFileLinesSpinner.getNumber() != settings.parallelFileLines
+                || collectMetricsBox.isSelected() != settings.collectMetrics
+                || shadowModeBox.isSelected() != settings.shadowMode
+                || largeFileLinesSpinner.getNumber() != settings.largeFileLines
+                || largeFileElementsSpinner.getNumber() != settings.largeFileElements
+                || annotationBudgetSpinner.getNumber() != settings.annotationBudget;
+    }
+
+    @Override
+    public void apply()
+    {
+        Amphibian2Settings settings = Amphibian2Settings.getInstance();
+        settings.useLegacyAnnotator = legacyAnnotatorBox.isSelected();
+        settings.paintBlocks = paintBlocksBox.isSelected();
+        settings.showOverview = showOverviewBox.isSelected();
+        settings.diffEditors = (Amphibian2EditorPolicy) diffEditorsBox.getSelectedItem();
+        settings.previewEditors = (Amphibian2EditorPolicy) previewEditorsBox.getSelectedItem();
+        settings.otherEditors = (Amphibian2EditorPolicy) otherEditorsBox.getSelectedItem();
+        settings.viewportOnly = viewportOnlyBox.isSelected();
+        settings.viewportMargin = viewportMarginSpinner.getNumber();
+        settings.warmUpFiles = warmUpFilesSpinner.getNumber();
+        settings.parallelFileLines = parallelFileLinesSpinner.getNumber();
+        settings.collectMetrics = collectMetricsBox.isSelected();
+        settings.shadowMode = shadowModeBox.isSelected();
+        settings.largeFileLines = largeFileLinesSpinner.getNumber();
+        settings.largeFileElements = largeFileElementsSpinner.getNumber();
+        settings.annotationBudget = annotationBudgetSpinner.getNumber();
+        Amphibian2BlockModel.invalidateAll();
+
+        // Drop the cached block models and re-highlight every open project with the new settings
+        for (Project project : ProjectManager.getInstance().getOpenProjects())
+        {
+            DaemonCodeAnalyzer.getInstance(project).restart();
+        }
+    }
+
+    @Override
+    public void reset()
+    {
+        Amphibian2Settings settings = Amphibian2Settings.getInstance();
+        legacyAnnotatorBox.setSelected(settings.useLegacyAnnotator);
+        paintBlocksBox.setSelected(settings.paintBlocks);
+        showOverviewBox.setSelected(settings.showOverview);
+        diffEditorsBox.setSelectedItem(settings.diffEditors);
+        previewEditorsBox.setSelectedItem(settings.previewEditors);
+        otherEditorsBox.setSelectedItem(settings.otherEditors);
+        viewportOnlyBox.setSelected(settings.viewportOnly);
+        viewportMarginSpinner.setNumber(settings.viewportMargin);
+        warmUpFilesSpinner.setNumber(settings.warmUpFiles);
+        parallelFileLinesSpinner.setNumber(settings.parallelFileLines);
+        collectMetricsBox.setSelected(settings.collectMetrics);
+        shadowModeBox.setSelected(settings.shadowMode);
+        largeFileLinesSpinner.setNumber(settings.largeFileLines);
+        largeFileElementsSpinner.setNumber(settings.largeFileElements);
+        annotationBudgetSpinner.setNumber(settings.annotationBudget);
+    }
+
+    @Override
+    public void disposeUIResources()
+    {
+        legacyAnnotatorBox = null;
+        paintBlocksBox = null;
+        showOverviewBox = null;
+        diffEditorsBox = null;
+        previewEditorsBox = null;
+        otherEditorsBox = null;
+        viewportOnlyBox = null;
+        viewportMarginSpinner = null;
+        warmUpFilesSpinner = null;
+        parallelFileLinesSpinner = null;
+        collectMetricsBox = null;
+        shadowModeBox = null;
+        largeFileLinesSpinner = null;
+        largeFileElementsSpinner = null;
+        annotationBudgetSpinner = null;
+    }
+}
@@ -1,5 +1,7 @@
 package org.cacticouncil.amphibian2;
 
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
 import com.intellij.openapi.editor.colors.EditorColorsListener;
 import com.intellij.openapi.editor.colors.EditorColorsScheme;
 import org.jetbrains.annotations.Nullable;
@@ -9,7 +11,14 @@ public class Amphibian2EditorColorsListener implements EditorColorsListener
     @Override
     public void globalSchemeChange(@Nullable EditorColorsScheme scheme)
     {
-        // Update scheme when it changes
-        Amphibian2ColorGenerator.schemeChange(scheme);
+        // Update the palette when the scheme changes; highlighters are keyed by kind, and the daemon restarts every
+        // file on a scheme change, so they pick up the new colors without being touched here
+        Amphibian2ColorGenerator.schemeChange();
+
+        // The painted blocks read the palette on every paint, but the overview strips cache their tiles
+        for (Editor editor : EditorFactory.getInstance().getAllEditors())
+        {
+            Amphibian2Overview.schemeChange(editor);
+        }
     }
 }
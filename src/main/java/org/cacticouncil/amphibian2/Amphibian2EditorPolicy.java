@@ -0,0 +1,113 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.EditorKind;
+import com.intellij.openapi.editor.markup.MarkupEditorFilter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+public enum Amphibian2EditorPolicy
+{
+    // Color the editor like any other, within the large file limits
+    FULL("Full coloring", Amphibian2ColoringLevel.FULL),
+
+    // Only imports and the headers of classes and methods
+    HEADERS("Headers only", Amphibian2ColoringLevel.HEADERS),
+
+    // Don't color the editor at all
+    OFF("Off", null);
+
+    // Shows the highlighters of each block kind only in the editors whose policy colors it
+    private static final MarkupEditorFilter[] FILTERS = new MarkupEditorFilter[Amphibian2BlockKind.values().length];
+
+    static
+    {
+        for (Amphibian2BlockKind kind : Amphibian2BlockKind.values())
+        {
+            FILTERS[kind.ordinal()] = editor -> colors(editor, kind);
+        }
+    }
+
+    private final String description;
+    private final Amphibian2ColoringLevel level;
+
+    Amphibian2EditorPolicy(@NotNull String description, @Nullable Amphibian2ColoringLevel level)
+    {
+        this.description = description;
+        this.level = level;
+    }
+
+    @Nullable
+    public Amphibian2ColoringLevel getLevel()
+    {
+        return level;
+    }
+
+    @Override
+    public String toString()
+    {
+        return description;
+    }
+
+    @NotNull
+    public static Amphibian2EditorPolicy forEditor(@NotNull Editor editor)
+    {
+        EditorKind kind = editor.getEditorKind();
+
+        // Editors of files are colored fully; diffs, previews and popups by their own settings
+        if (kind == EditorKind.MAIN_EDITOR)
+        {
+            return FULL;
+        }
+
+        Amphibian2Settings settings = Amphibian2Settings.getInstance();
+
+        if (kind == EditorKind.DIFF)
+        {
+            return settings.diffEditors;
+        }
+        else if (kind == EditorKind.PREVIEW)
+        {
+            return settings.previewEditors;
+        }
+        else
+        {
+            return settings.otherEditors;
+        }
+    }
+
+    @Nullable
+    public static Amphibian2ColoringLevel forDocument(@NotNull Document document)
+    {
+        // The highest level any editor of the document is colored at, or null when none of them is colored
+        Amphibian2ColoringLevel result = null;
+
+        for (Editor editor : EditorFactory.getInstance().getEditors(document))
+        {
+            Amphibian2ColoringLevel level = forEditor(editor).getLevel();
+
+            if (level != null && (result == null || level.ordinal() < result.ordinal()))
+            {
+                result = level;
+            }
+        }
+
+        return result;
+    }
+
+    public static boolean colors(@NotNull Editor editor, @NotNull Amphibian2BlockKind kind)
+    {
+        Amphibian2ColoringLevel level = forEditor(editor).getLevel();
+        return level != null && level.colors(kind);
+    }
+
+    @NotNull
+    public static MarkupEditorFilter getFilter(@NotNull Amphibian2BlockKind kind)
+    {
+        // Highlighters live in the markup of the document, which every editor of it shows, so each editor hides
+        // the kinds its own policy doesn't color
+        return FILTERS[kind.ordinal()];
+    }
+}
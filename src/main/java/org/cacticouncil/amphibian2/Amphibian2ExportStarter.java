@@ -0,0 +1,173 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.fileTypes.LanguageFileType;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import org.jetbrains.annotations.NotNull;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class Amphibian2ExportStarter implements ApplicationStarter
+{
+    // Span files start with "AMB2" and a format version
+    private static final int SPAN_FILE_MAGIC = 0x414D4232;
+    private static final int SPAN_FILE_VERSION = 1;
+
+    @Override
+    public String getCommandName()
+    {
+        return "amphibian2-export";
+    }
+
+    @Override
+    public void main(@NotNull String[] args)
+    {
+        // Usage: amphibian2-export <source dir> <output dir> [--spans] [--threads=<count>]
+        if (args.length < 3)
+        {
+            System.err.println("Usage: amphibian2-export <source dir> <output dir> [--spans] [--threads=<count>]");
+            System.exit(2);
+        }
+
+        Path source = Paths.get(args[1]).toAbsolutePath();
+        Path output = Paths.get(args[2]).toAbsolutePath();
+        boolean spans = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 3; i < args.length; i++)
+        {
+            if (args[i].equals("--spans"))
+            {
+                spans = true;
+            }
+            else if (args[i].startsWith("--threads="))
+            {
+                threads = Math.max(1, Integer.parseInt(args[i].substring("--threads=".length())));
+            }
+        }
+
+        int status;
+
+        try
+        {
+            status = export(source, output, spans, threads);
+        }
+        catch (IOException | InterruptedException e)
+        {
+            e.printStackTrace();
+            status = 2;
+        }
+
+        System.exit(status);
+    }
+
+    private static int export(@NotNull Path source, @NotNull Path output, boolean spans, int threads)
+            throws IOException, InterruptedException
+    {
+        Project project = ProjectManager.getInstance().getDefaultProject();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        // Only a couple of files per thread are ever in memory, however large the tree is
+        Semaphore inFlight = new Semaphore(threads * 2);
+        AtomicInteger exported = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        try (Stream<Path> paths = Files.walk(source))
+        {
+            for (Path path : (Iterable<Path>) paths::iterator)
+            {
+                FileType fileType = FileTypeManager.getInstance().getFileTypeByFileName(path.getFileName().toString());
+
+                if (!Files.isRegularFile(path) || !(fileType instanceof LanguageFileType)
+                        || Amphibian2BlockProvider.forLanguage(((LanguageFileType) fileType).getLanguage()) == null)
+                {
+                    // Skip everything without blocks
+                    continue;
+                }
+
+                Path relative = source.relativize(path);
+                Path target = output.resolve(relative + (spans ? ".amb2" : ".html"));
+
+                inFlight.acquire();
+                executor.execute(() ->
+                {
+                    try
+                    {
+                        exportFile(project, path, (LanguageFileType) fileType, target, relative.toString(), spans);
+                        exported.incrementAndGet();
+                    }
+                    catch (Exception e)
+                    {
+                        System.err.println("Cannot export " + path + ": " + e);
+                        failed.incrementAndGet();
+                    }
+                    finally
+                    {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+
+        System.out.println(exported.get() + " file(s) exported to " + output + ", " + failed.get() + " failed");
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    private static void exportFile(@NotNull Project project, @NotNull Path path, @NotNull LanguageFileType fileType,
+                                   @NotNull Path target, @NotNull String title, boolean spans) throws IOException
+    {
+        // PSI text only ever holds \n, so files with \r\n or \r would be misparsed and their offsets would drift
+        String text = StringUtil.convertLineSeparators(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+
+        // Build the model of a throwaway file, with every block colored
+        Amphibian2BlockModel model = ReadAction.compute(() ->
+        {
+            PsiFile file = PsiFileFactory.getInstance(project).createFileFromText(path.getFileName().toString(), fileType, text);
+            return Amphibian2BlockModel.computeFull(file);
+        });
+
+        Files.createDirectories(target.getParent());
+
+        if (spans)
+        {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target))))
+            {
+                out.writeInt(SPAN_FILE_MAGIC);
+                out.writeInt(SPAN_FILE_VERSION);
+                out.writeInt(model.getTextLength());
+                model.getSpans().write(out);
+            }
+        }
+        else
+        {
+            Amphibian2HtmlWriter html = new Amphibian2HtmlWriter();
+            model.replay(html);
+
+            try (Writer out = Files.newBufferedWriter(target, StandardCharsets.UTF_8))
+            {
+                html.write(out, text, title);
+            }
+        }
+    }
+}
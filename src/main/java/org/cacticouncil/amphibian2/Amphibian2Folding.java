@@ -0,0 +1,204 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.codeInsight.daemon.impl.HighlightInfo;
+import com.intellij.codeInsight.daemon.impl.HighlightInfoType;
+import com.intellij.codeInsight.daemon.impl.UpdateHighlightersUtil;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.FoldRegion;
+import com.intellij.openapi.editor.ex.FoldingListener;
+import com.intellij.openapi.editor.ex.FoldingModelEx;
+import com.intellij.openapi.editor.ex.util.EditorUtil;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class Amphibian2Folding
+{
+    // Marks editors that already listen for expanded fold regions
+    private static final Key<Boolean> LISTENER_KEY = Key.create("amphibian2.folding.listener");
+
+    // Marks documents whose highlighters leave out the collapsed regions of their only editor
+    private static final Key<Boolean> SKIPPED_KEY = Key.create("amphibian2.folding.skipped");
+
+    private Amphibian2Folding()
+    {
+    }
+
+    @NotNull
+    public static int[] getCollapsedRanges(@NotNull Editor editor)
+    {
+        // Start and end pairs of the outermost collapsed regions, in document order
+        FoldRegion[] regions = editor.getFoldingModel().getAllFoldRegions();
+        int[] ranges = new int[regions.length * 2];
+        int count = 0;
+        int lastEnd = -1;
+
+        for (FoldRegion region : regions)
+        {
+            if (!region.isValid() || region.isExpanded() || region.getStartOffset() < lastEnd)
+            {
+                // Skip expanded regions and the ones inside a collapsed region
+                continue;
+            }
+
+            ranges[count++] = region.getStartOffset();
+            ranges[count++] = region.getEndOffset();
+            lastEnd = region.getEndOffset();
+        }
+
+        return Arrays.copyOf(ranges, count);
+    }
+
+    @NotNull
+    public static int[] getSkippedRanges(@NotNull Editor editor)
+    {
+        // The highlighters of a document are shared by all of its editors, and another editor may have the same
+        // regions expanded, so collapsed regions are only left out while the editor is the only one
+        if (EditorFactory.getInstance().getEditors(editor.getDocument()).length > 1)
+        {
+            return new int[0];
+        }
+
+        return getCollapsedRanges(editor);
+    }
+
+    public static void setSkipped(@NotNull Document document, boolean skipped)
+    {
+        document.putUserData(SKIPPED_KEY, skipped ? Boolean.TRUE : null);
+    }
+
+    public static boolean isSkippedInShared(@NotNull Editor editor)
+    {
+        // True when another editor left out regions this editor may show, so the whole file has to be highlighted
+        Document document = editor.getDocument();
+        return document.getUserData(SKIPPED_KEY) != null && EditorFactory.getInstance().getEditors(document).length > 1;
+    }
+
+    public static boolean isHidden(@NotNull int[] collapsed, int startOffset, int endOffset)
+    {
+        // Binary search for the last collapsed region starting at or before the span
+        int low = 0;
+        int high = collapsed.length / 2 - 1;
+
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+
+            if (collapsed[middle * 2] <= startOffset)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+
+        return high >= 0 && endOffset <= collapsed[high * 2 + 1];
+    }
+
+    public static void installListener(@NotNull Editor editor, int passId)
+    {
+        if (editor.getUserData(LISTENER_KEY) != null || !(editor.getFoldingModel() instanceof FoldingModelEx))
+        {
+            // Only listen once per editor
+            return;
+        }
+
+        editor.putUserData(LISTENER_KEY, Boolean.TRUE);
+
+        // The listener lives as long as the editor
+        Disposable disposable = Disposer.newDisposable();
+        EditorUtil.disposeWithEditor(editor, disposable);
+
+        ((FoldingModelEx) editor.getFoldingModel()).addListener(new FoldingListener()
+        {
+            private final List<TextRange> expanded = new ArrayList<>();
+
+            @Override
+            public void onFoldRegionStateChange(@NotNull FoldRegion region)
+            {
+                if (region.isExpanded())
+                {
+                    expanded.add(TextRange.create(region));
+                }
+            }
+
+            @Override
+            public void onFoldProcessingEnd()
+            {
+                if (!expanded.isEmpty())
+                {
+                    onExpand(editor, passId, expanded);
+                    expanded.clear();
+                }
+            }
+        }, disposable);
+    }
+
+    private static void onExpand(@NotNull Editor editor, int passId, @NotNull List<TextRange> expanded)
+    {
+        Amphibian2Settings settings = Amphibian2Settings.getInstance();
+        Project project = editor.getProject();
+
+        if (settings.useLegacyAnnotator || settings.paintBlocks || project == null || project.isDisposed())
+        {
+            // Painted blocks follow the folding by themselves
+            return;
+        }
+
+        Document document = editor.getDocument();
+        PsiFile file = PsiDocumentManager.getInstance(project).getPsiFile(document);
+
+        if (file == null || document.getUserData(SKIPPED_KEY) == null)
+        {
+            // Nothing was left out of the highlighters
+            return;
+        }
+
+        Amphibian2BlockModel model = Amphibian2BlockModel.getCachedInstance(file);
+
+        if (model == null)
+        {
+            // The file changed since it was last colored, so the pass has to run again anyway
+            DaemonCodeAnalyzer.getInstance(project).restart(file);
+            return;
+        }
+
+        int[] collapsed = getCollapsedRanges(editor);
+
+        for (TextRange range : expanded)
+        {
+            // Add the highlights of the region that were skipped while it was collapsed
+            List<HighlightInfo> highlights = new ArrayList<>();
+            List<Amphibian2BlockKind> kinds = new ArrayList<>();
+
+            model.replay(range, (start, end, kind) ->
+            {
+                if (range.containsRange(start, end) && !isHidden(collapsed, start, end))
+                {
+                    highlights.add(HighlightInfo.newHighlightInfo(HighlightInfoType.INFORMATION)
+                            .range(start, end)
+                            .textAttributes(kind.getKey())
+                            .createUnconditionally());
+                    kinds.add(kind);
+                }
+            });
+
+            UpdateHighlightersUtil.setHighlightersToEditor(project, document, range.getStartOffset(), range.getEndOffset(),
+                    highlights, editor.getColorsScheme(), passId);
+            Amphibian2HighlightingPass.setEditorFilters(highlights, kinds);
+        }
+    }
+}
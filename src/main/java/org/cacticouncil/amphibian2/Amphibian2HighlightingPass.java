@@ -0,0 +1,258 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.codeHighlighting.TextEditorHighlightingPass;
+import com.intellij.codeInsight.daemon.impl.DaemonCodeAnalyzerEx;
+import com.intellij.codeInsight.daemon.impl.HighlightInfo;
+import com.intellij.codeInsight.daemon.impl.HighlightInfoType;
+import com.intellij.codeInsight.daemon.impl.UpdateHighlightersUtil;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.ex.RangeHighlighterEx;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Amphibian2HighlightingPass extends TextEditorHighlightingPass implements DumbAware
+{
+    // The stamp of the document when an editor was last given its model, since the file status is per document
+    private static final Key<Long> APPLIED_KEY = Key.create("amphibian2.appliedStamp");
+
+    // The level the highlighters of the whole document were last made at
+    private static final Key<Amphibian2ColoringLevel> MARKUP_LEVEL_KEY = Key.create("amphibian2.markupLevel");
+
+    private final PsiFile file;
+    private final Editor editor;
+    private final TextRange window;
+    private final TextRange dirtyRange;
+
+    // The highest level any editor of the document is colored at
+    private final Amphibian2ColoringLevel maxLevel;
+    private final List<HighlightInfo> highlights = new ArrayList<>();
+    private final List<Amphibian2BlockKind> kinds = new ArrayList<>();
+
+    // False when the highlighters of the document are current and only this editor's renderer and strip are behind
+    private final boolean updateMarkup;
+
+    // Whether the blocks are painted by the renderer of the editor rather than highlighted
+    private final boolean paintBlocks = Amphibian2Settings.getInstance().paintBlocks;
+    private Amphibian2BlockModel model;
+
+    // The collapsed fold regions of the editor, whose contents are only highlighted once expanded; empty when
+    // another editor shares the highlighters of the document
+    private final int[] collapsed;
+
+    // The level the file was colored at, lowered for very large files
+    private Amphibian2ColoringLevel level = Amphibian2ColoringLevel.FULL;
+
+    // The range whose highlighters are replaced, grown to hold spans crossing the window
+    private int applyStart;
+    private int applyEnd;
+
+    public Amphibian2HighlightingPass(@NotNull PsiFile file, @NotNull Editor editor, @Nullable TextRange window,
+                                      @Nullable TextRange dirtyRange, @NotNull Amphibian2ColoringLevel maxLevel)
+    {
+        this(file, editor, window, dirtyRange, maxLevel, true);
+    }
+
+    public Amphibian2HighlightingPass(@NotNull PsiFile file, @NotNull Editor editor,
+                                      @NotNull Amphibian2ColoringLevel maxLevel)
+    {
+        // Only hand the current model to an editor whose document another editor already colored
+        this(file, editor, null, null, maxLevel, false);
+    }
+
+    private Amphibian2HighlightingPass(@NotNull PsiFile file, @NotNull Editor editor, @Nullable TextRange window,
+                                       @Nullable TextRange dirtyRange, @NotNull Amphibian2ColoringLevel maxLevel,
+                                       boolean updateMarkup)
+    {
+        super(file.getProject(), editor.getDocument(), false);
+        this.file = file;
+        this.editor = editor;
+        this.window = window;
+        this.dirtyRange = dirtyRange;
+        this.maxLevel = maxLevel;
+        this.updateMarkup = updateMarkup;
+        this.collapsed = paintBlocks || !updateMarkup ? new int[0] : Amphibian2Folding.getSkippedRanges(editor);
+    }
+
+    public static boolean isAppliedTo(@NotNull Editor editor)
+    {
+        // Whether the editor was given a model since the document last changed
+        Long stamp = editor.getUserData(APPLIED_KEY);
+        return stamp != null && stamp == editor.getDocument().getModificationStamp();
+    }
+
+    public static boolean isMarkupBelow(@NotNull Document document, @NotNull Amphibian2ColoringLevel level)
+    {
+        // Whether the highlighters were made for editors that color less than one of the document now needs
+        Amphibian2ColoringLevel markupLevel = document.getUserData(MARKUP_LEVEL_KEY);
+        return markupLevel != null && markupLevel.ordinal() > level.ordinal();
+    }
+
+    public static void setEditorFilters(@NotNull List<HighlightInfo> highlights, @NotNull List<Amphibian2BlockKind> kinds)
+    {
+        // Let every editor of the document hide the kinds its own policy doesn't color
+        for (int i = 0; i < highlights.size(); i++)
+        {
+            RangeHighlighterEx highlighter = highlights.get(i).getHighlighter();
+
+            if (highlighter != null)
+            {
+                highlighter.setEditorFilter(Amphibian2EditorPolicy.getFilter(kinds.get(i)));
+            }
+        }
+    }
+
+    @Override
+    public void doCollectInformation(@NotNull ProgressIndicator progress)
+    {
+        Amphibian2Metrics.Record metrics = Amphibian2Metrics.begin(file);
+
+        try
+        {
+            collect(metrics);
+        }
+        finally
+        {
+            Amphibian2Metrics.end(metrics);
+        }
+    }
+
+    private void collect(Amphibian2Metrics.Record metrics)
+    {
+        TextRange range;
+
+        if (window != null)
+        {
+            // Build a model of just the visible window
+            model = Amphibian2BlockModel.compute(file, window, maxLevel);
+            range = window;
+        }
+        else if (maxLevel != Amphibian2ColoringLevel.FULL)
+        {
+            // Diffs and previews are seldom edited, so they get a model of their own lower level each time
+            model = Amphibian2BlockModel.getLimitedInstance(file, maxLevel);
+            range = TextRange.from(0, file.getTextLength());
+        }
+        else
+        {
+            // Replay the cached model of the whole file, rebuilding the changed element in it after an edit
+            long start = System.nanoTime();
+            PsiElement changed = dirtyRange != null ? Amphibian2BlockModel.findChangedElement(file, dirtyRange) : null;
+            model = Amphibian2BlockModel.getInstance(file, changed);
+            range = changed != null ? changed.getTextRange() : TextRange.from(0, file.getTextLength());
+
+            if (Amphibian2Settings.getInstance().shadowMode && updateMarkup)
+            {
+                // Check the cached, spliced or parallel model against what the annotator would have colored
+                Amphibian2Shadow.compare(file, model, System.nanoTime() - start);
+            }
+        }
+
+        level = model.getLevel();
+        applyStart = range.getStartOffset();
+        applyEnd = range.getEndOffset();
+
+        if (paintBlocks || !updateMarkup)
+        {
+            // The renderer paints straight from the model, and current highlighters need nothing new
+            return;
+        }
+
+        // Turn every merged span of the model that intersects the range into a highlight
+        model.replay(range, (start, end, kind) ->
+        {
+            if (Amphibian2Folding.isHidden(collapsed, start, end))
+            {
+                // Nobody can see it until the region is expanded
+                return;
+            }
+
+            applyStart = Math.min(applyStart, start);
+            applyEnd = Math.max(applyEnd, end);
+
+            // Highlight with the key of the kind, so each editor looks it up in its own scheme
+            highlights.add(HighlightInfo.newHighlightInfo(HighlightInfoType.INFORMATION)
+                    .range(start, end)
+                    .textAttributes(kind.getKey())
+                    .createUnconditionally());
+            kinds.add(kind);
+        });
+
+        if (metrics != null)
+        {
+            metrics.addAnnotations(highlights.size());
+        }
+    }
+
+    @Override
+    public void doApplyInformationToEditor()
+    {
+        if (!paintBlocks)
+        {
+            Amphibian2BlockRenderer.uninstall(editor);
+        }
+
+        if (!paintBlocks && updateMarkup)
+        {
+            // Replace the highlighters of this pass in one batch
+            UpdateHighlightersUtil.setHighlightersToEditor(myProject, myDocument, applyStart, applyEnd,
+                    highlights, getColorsScheme(), getId());
+            setEditorFilters(highlights, kinds);
+
+            boolean wholeDocument = applyStart == 0 && applyEnd >= myDocument.getTextLength();
+
+            if (wholeDocument)
+            {
+                myDocument.putUserData(MARKUP_LEVEL_KEY, maxLevel);
+            }
+
+            if (collapsed.length > 0)
+            {
+                Amphibian2Folding.setSkipped(myDocument, true);
+            }
+            else if (wholeDocument)
+            {
+                // Every highlighter of the document was just replaced, and none was left out
+                Amphibian2Folding.setSkipped(myDocument, false);
+            }
+        }
+        else if (paintBlocks && Amphibian2BlockRenderer.setModel(editor, model))
+        {
+            // Drop the highlighters left from before the blocks were painted
+            UpdateHighlightersUtil.setHighlightersToEditor(myProject, myDocument, 0, myDocument.getTextLength(),
+                    highlights, getColorsScheme(), getId());
+            myDocument.putUserData(MARKUP_LEVEL_KEY, null);
+            Amphibian2Folding.setSkipped(myDocument, false);
+        }
+
+        // Redraw the part of the overview strip that changed
+        Amphibian2Overview.setModel(editor, model, new TextRange(applyStart, applyEnd));
+        editor.putUserData(APPLIED_KEY, myDocument.getModificationStamp());
+
+        if (updateMarkup)
+        {
+            // Everything edited so far is colored now
+            DaemonCodeAnalyzerEx.getInstanceEx(myProject).getFileStatusMap().markFileUpToDate(myDocument, getId());
+        }
+
+        if (maxLevel == Amphibian2ColoringLevel.FULL)
+        {
+            // Show or hide the large file notice, which is only about the size of the file
+            Amphibian2LargeFiles.setLevel(myProject, file.getVirtualFile(), level);
+        }
+
+        if (window != null)
+        {
+            // Remember what is colored so scrolling inside it doesn't start another pass
+            Amphibian2Viewport.markCovered(editor, window);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.codeHighlighting.DirtyScopeTrackingHighlightingPassFactory;
+import com.intellij.codeHighlighting.TextEditorHighlightingPass;
+import com.intellij.codeHighlighting.TextEditorHighlightingPassFactory;
+import com.intellij.codeHighlighting.TextEditorHighlightingPassFactoryRegistrar;
+import com.intellij.codeHighlighting.TextEditorHighlightingPassRegistrar;
+import com.intellij.codeInsight.daemon.impl.DaemonCodeAnalyzerEx;
+import com.intellij.codeInsight.daemon.impl.FileStatusMap;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+public class Amphibian2HighlightingPassFactory implements TextEditorHighlightingPassFactory, TextEditorHighlightingPassFactoryRegistrar,
+        DirtyScopeTrackingHighlightingPassFactory, DumbAware
+{
+    private int passId;
+
+    @Override
+    public void registerHighlightingPassFactory(@NotNull TextEditorHighlightingPassRegistrar registrar, @NotNull Project project)
+    {
+        // Run independently of the other passes, without an intentions pass afterwards
+        passId = registrar.registerTextEditorHighlightingPass(this, null, null, false, -1);
+    }
+
+    @Override
+    public int getPassId()
+    {
+        return passId;
+    }
+
+    @Nullable
+    @Override
+    public TextEditorHighlightingPass createHighlightingPass(@NotNull PsiFile file, @NotNull Editor editor)
+    {
+        if (Amphibian2Settings.getInstance().useLegacyAnnotator)
+        {
+            // The annotator colors the file instead
+            return null;
+        }
+
+        if (Amphibian2BlockProvider.forLanguage(file.getLanguage()) == null)
+        {
+            // Nothing to color in languages without a block provider
+            return null;
+        }
+
+        // Diffs, previews and popups may be colored less, or not at all
+        if (Amphibian2EditorPolicy.forEditor(editor).getLevel() == null)
+        {
+            return null;
+        }
+
+        // The highlighters are shared by every editor of the document, so they are made at the highest level any of
+        // them needs, and each editor hides the kinds its own policy doesn't color
+        Document document = editor.getDocument();
+        Amphibian2ColoringLevel maxLevel = Amphibian2EditorPolicy.forDocument(document);
+
+        if (maxLevel == null)
+        {
+            return null;
+        }
+
+        Amphibian2Settings settings = Amphibian2Settings.getInstance();
+
+        if (!settings.paintBlocks)
+        {
+            // Highlight the contents of collapsed regions when they are expanded
+            Amphibian2Folding.installListener(editor, passId);
+
+            // The document was highlighted for an editor with collapsed regions, or for editors that color less,
+            // and is now shown in one that needs more
+            if (Amphibian2Folding.isSkippedInShared(editor) || Amphibian2HighlightingPass.isMarkupBelow(document, maxLevel))
+            {
+                DaemonCodeAnalyzerEx.getInstanceEx(file.getProject()).getFileStatusMap()
+                        .markFileScopeDirty(document, passId);
+            }
+        }
+
+        if (!settings.viewportOnly || settings.paintBlocks)
+        {
+            // Get the part of the file edited since this pass last ran, if any; painted blocks always use
+            // the model of the whole file, as painting only ever costs the visible area
+            TextRange dirtyRange = FileStatusMap.getDirtyTextRange(editor, passId);
+
+            if (dirtyRange == null)
+            {
+                // The file status is per document, so an editor opened after it was colored, or the other half of a
+                // split being typed in, still has to be given the current model for its renderer and strip
+                return Amphibian2HighlightingPass.isAppliedTo(editor) ? null
+                        : new Amphibian2HighlightingPass(file, editor, maxLevel);
+            }
+
+            // Color the whole file, rebuilding only the element the edits are in when possible
+            return new Amphibian2HighlightingPass(file, editor, null, dirtyRange, maxLevel);
+        }
+
+        // Follow the scrolling of the editor from now on
+        Amphibian2Viewport.installListener(editor, passId);
+
+        // Only color the part of the visible area which isn't colored yet
+        TextRange window = Amphibian2Viewport.getUncoveredWindow(editor, settings.viewportMargin);
+
+        if (window == null)
+        {
+            return null;
+        }
+
+        return new Amphibian2HighlightingPass(file, editor, window, null, maxLevel);
+    }
+}
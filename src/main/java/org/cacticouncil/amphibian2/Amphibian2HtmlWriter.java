@@ -0,0 +1,129 @@
+package org.cacticouncil.amphibian2;
+
+import org.jetbrains.annotations.NotNull;
+import java.awt.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+public final class Amphibian2HtmlWriter implements Amphibian2SpanSink
+{
+    private static final Amphibian2BlockKind[] KINDS = Amphibian2BlockKind.values();
+
+    // Each span becomes an opening and a closing event, packed as (offset << 8) | (open << 7) | kind,
+    // so sorting puts the closing events of an offset before its opening ones
+    private long[] events = new long[64];
+    private int count;
+
+    @Override
+    public void addSpan(int startOffset, int endOffset, @NotNull Amphibian2BlockKind kind)
+    {
+        if (endOffset <= startOffset)
+        {
+            return;
+        }
+
+        if (count + 2 > events.length)
+        {
+            events = Arrays.copyOf(events, events.length * 2);
+        }
+
+        events[count++] = ((long) startOffset << 8) | 0x80 | kind.ordinal();
+        events[count++] = ((long) endOffset << 8) | kind.ordinal();
+    }
+
+    public void write(@NotNull Writer out, @NotNull CharSequence text, @NotNull String title) throws IOException
+    {
+        // A self-contained page, with the colors of every kind in its own style sheet
+        out.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>");
+        escape(out, title, 0, title.length());
+        out.write("</title>\n<style>\npre { font-family: monospace; line-height: 1.3; }\n");
+
+        for (Amphibian2BlockKind kind : KINDS)
+        {
+            Color color = kind.getColor();
+            out.write(String.format(Locale.ROOT, ".k%d { background: rgba(%d, %d, %d, %.3f); }%n", kind.ordinal(),
+                    color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha() / 255.0));
+        }
+
+        out.write("</style>\n</head>\n<body>\n<pre>");
+
+        // Cut the text where any span starts or ends, and nest one element per covering kind in each piece
+        Arrays.sort(events, 0, count);
+        int[] active = new int[KINDS.length];
+        int position = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            int offset = (int) Math.min(events[i] >>> 8, text.length());
+            int kind = (int) (events[i] & 0x7F);
+
+            if (offset > position)
+            {
+                writePiece(out, text, position, offset, active);
+                position = offset;
+            }
+
+            active[kind] += (events[i] & 0x80) != 0 ? 1 : -1;
+        }
+
+        writePiece(out, text, position, text.length(), active);
+        out.write("</pre>\n</body>\n</html>\n");
+
+        count = 0;
+    }
+
+    private static void writePiece(@NotNull Writer out, @NotNull CharSequence text, int start, int end, int[] active)
+            throws IOException
+    {
+        if (start >= end)
+        {
+            return;
+        }
+
+        int open = 0;
+
+        for (int kind = 0; kind < active.length; kind++)
+        {
+            if (active[kind] > 0)
+            {
+                out.write("<span class=\"k" + kind + "\">");
+                open++;
+            }
+        }
+
+        escape(out, text, start, end);
+
+        for (int i = 0; i < open; i++)
+        {
+            out.write("</span>");
+        }
+    }
+
+    private static void escape(@NotNull Writer out, @NotNull CharSequence text, int start, int end) throws IOException
+    {
+        for (int i = start; i < end; i++)
+        {
+            char c = text.charAt(i);
+
+            switch (c)
+            {
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '"':
+                    out.write("&quot;");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+}
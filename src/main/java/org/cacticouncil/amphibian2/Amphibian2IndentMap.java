@@ -0,0 +1,193 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.psi.*;
+import org.jetbrains.annotations.NotNull;
+import java.util.Arrays;
+
+public final class Amphibian2IndentMap
+{
+    private static final Amphibian2IndentMap EMPTY = new Amphibian2IndentMap(new int[0], new int[0], 0);
+
+    // The start offset and indent width of every indented line owned by the block, in line order
+    private final int[] starts;
+    private final int[] widths;
+    private final int size;
+
+    private Amphibian2IndentMap(int[] starts, int[] widths, int size)
+    {
+        this.starts = starts;
+        this.widths = widths;
+        this.size = size;
+    }
+
+    @NotNull
+    public static Amphibian2IndentMap forBlock(@NotNull PsiCodeBlock block)
+    {
+        PsiStatement[] statements = block.getStatements();
+
+        if (statements.length == 0)
+        {
+            // An empty block has no indented lines
+            return EMPTY;
+        }
+
+        // Only the lines of this block are scanned, so an edit elsewhere in the file costs nothing here
+        CharSequence text = getText(block.getContainingFile());
+        int start = getLineStart(text, statements[0].getTextRange().getStartOffset());
+        int end = statements[statements.length - 1].getTextRange().getEndOffset();
+
+        // The lines of nested if blocks are colored by those blocks, so find the ranges to skip
+        int[] skipped = getNestedRanges(block, text);
+        int next = 0;
+
+        int[] starts = new int[16];
+        int[] widths = new int[16];
+        int size = 0;
+
+        // Walk the lines of the block, measuring the spaces and tabs at the start of each
+        for (int line = start; line <= end && line < text.length(); line = getNextLineStart(text, line))
+        {
+            // Jump past the lines of nested if blocks once the walk reaches them; an else branch can share a line
+            while (next < skipped.length && line >= skipped[next])
+            {
+                line = Math.max(line, skipped[next + 1]);
+                next += 2;
+            }
+
+            if (line > end || line >= text.length())
+            {
+                break;
+            }
+
+            int width = 0;
+
+            while (line + width < text.length() && isIndent(text.charAt(line + width)))
+            {
+                width++;
+            }
+
+            if (width > 0)
+            {
+                if (size == starts.length)
+                {
+                    starts = Arrays.copyOf(starts, size * 2);
+                    widths = Arrays.copyOf(widths, size * 2);
+                }
+
+                starts[size] = line;
+                widths[size] = width;
+                size++;
+            }
+        }
+
+        return new Amphibian2IndentMap(starts, widths, size);
+    }
+
+    @NotNull
+    private static CharSequence getText(@NotNull PsiFile file)
+    {
+        // Read the document when it matches the tree, since its text is already in memory
+        Document document = file.getViewProvider().getDocument();
+
+        if (document != null && PsiDocumentManager.getInstance(file.getProject()).isCommitted(document))
+        {
+            return document.getImmutableCharSequence();
+        }
+
+        return file.getViewProvider().getContents();
+    }
+
+    @NotNull
+    private static int[] getNestedRanges(@NotNull PsiCodeBlock block, @NotNull CharSequence text)
+    {
+        // Pairs of the first line start and the line start after the last line of every outermost nested if block
+        int[][] ranges = { new int[8] };
+        int[] size = { 0 };
+
+        block.acceptChildren(new JavaRecursiveElementWalkingVisitor()
+        {
+            @Override
+            public void visitCodeBlock(PsiCodeBlock nested)
+            {
+                ProgressManager.checkCanceled();
+
+                if (!isIfBlock(nested))
+                {
+                    super.visitCodeBlock(nested);
+                    return;
+                }
+
+                // Blocks nested deeper are inside this one's lines, so there is no need to go further
+                PsiStatement[] statements = nested.getStatements();
+
+                if (statements.length > 0)
+                {
+                    if (size[0] == ranges[0].length)
+                    {
+                        ranges[0] = Arrays.copyOf(ranges[0], size[0] * 2);
+                    }
+
+                    ranges[0][size[0]++] = getLineStart(text, statements[0].getTextRange().getStartOffset());
+                    ranges[0][size[0]++] = getNextLineStart(text, statements[statements.length - 1].getTextRange().getEndOffset());
+                }
+            }
+        });
+
+        return Arrays.copyOf(ranges[0], size[0]);
+    }
+
+    public static boolean isIfBlock(@NotNull PsiCodeBlock block)
+    {
+        // An if block is the code block of a block statement used as a branch of an if statement
+        PsiElement parent = block.getParent();
+        return parent instanceof PsiBlockStatement && parent.getParent() instanceof PsiIfStatement;
+    }
+
+    private static boolean isIndent(char c)
+    {
+        return c == ' ' || c == '\t';
+    }
+
+    private static int getLineStart(@NotNull CharSequence text, int offset)
+    {
+        // Scan back to the character after the previous line break
+        int i = Math.min(offset, text.length());
+
+        while (i > 0 && text.charAt(i - 1) != '\n')
+        {
+            i--;
+        }
+
+        return i;
+    }
+
+    private static int getNextLineStart(@NotNull CharSequence text, int offset)
+    {
+        // Scan forward past the next line break, or to the end of the text
+        int i = offset;
+
+        while (i < text.length() && text.charAt(i) != '\n')
+        {
+            i++;
+        }
+
+        return i + 1;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getLineStartOffset(int index)
+    {
+        return starts[index];
+    }
+
+    public int getIndentWidth(int index)
+    {
+        return widths[index];
+    }
+}
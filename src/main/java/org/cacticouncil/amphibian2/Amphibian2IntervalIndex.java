@@ -0,0 +1,395 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.util.io.DataInputOutputUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+public final class Amphibian2IntervalIndex
+{
+    public static final Amphibian2IntervalIndex EMPTY = new Builder().build();
+
+    // Parallel arrays, sorted by start offset and then longest first, so an entry follows the ones enclosing it
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] kinds;
+    private final int[] depths;
+
+    // Index of the innermost entry enclosing each entry, or -1
+    private final int[] parents;
+
+    // Largest end of the entries up to each entry, only kept when some entries overlap without nesting
+    @Nullable
+    private final int[] maxEnds;
+
+    private final int size;
+
+    private Amphibian2IntervalIndex(int[] starts, int[] ends, int[] kinds, int[] depths, int[] parents,
+                                    @Nullable int[] maxEnds, int size)
+    {
+        this.starts = starts;
+        this.ends = ends;
+        this.kinds = kinds;
+        this.depths = depths;
+        this.parents = parents;
+        this.maxEnds = maxEnds;
+        this.size = size;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getStart(int index)
+    {
+        return starts[index];
+    }
+
+    public int getEnd(int index)
+    {
+        return ends[index];
+    }
+
+    public int getKind(int index)
+    {
+        return kinds[index];
+    }
+
+    public int getDepth(int index)
+    {
+        return depths[index];
+    }
+
+    public int getParent(int index)
+    {
+        return parents[index];
+    }
+
+    public long getMemorySize()
+    {
+        // Five int arrays, or six when the entries overlap, ignoring the array headers
+        return (maxEnds == null ? 5L : 6L) * 4 * starts.length;
+    }
+
+    public boolean isNested()
+    {
+        return maxEnds == null;
+    }
+
+    public void processEnclosing(int offset, @NotNull IntConsumer consumer)
+    {
+        // Every entry enclosing the offset is the last entry starting at or before it, or one of its parents
+        reportReaching(lastStartingBefore(offset + 1), offset, consumer);
+    }
+
+    public void processIntersecting(int startOffset, int endOffset, @NotNull IntConsumer consumer)
+    {
+        // Entries starting before the range intersect it when they reach into it
+        reportReaching(lastStartingBefore(startOffset), startOffset, consumer);
+
+        // Entries starting inside the range follow one another
+        for (int i = lastStartingBefore(startOffset) + 1; i < size && starts[i] < endOffset; i++)
+        {
+            consumer.accept(i);
+        }
+    }
+
+    private void reportReaching(int last, int offset, @NotNull IntConsumer consumer)
+    {
+        if (maxEnds == null)
+        {
+            // Nested entries reaching past the offset all enclose the last one that does
+            reportEnclosing(last, offset, consumer);
+            return;
+        }
+
+        // Overlapping entries have no useful parents, so scan from the first entry that reaches past the offset
+        for (int i = firstReaching(offset); i <= last; i++)
+        {
+            if (ends[i] > offset)
+            {
+                consumer.accept(i);
+            }
+        }
+    }
+
+    private int firstReaching(int offset)
+    {
+        // Binary search for the first entry whose largest end so far is beyond the offset
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+
+            if (maxEnds[middle] > offset)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+
+        return low;
+    }
+
+    private void reportEnclosing(int index, int offset, @NotNull IntConsumer consumer)
+    {
+        if (index < 0)
+        {
+            return;
+        }
+
+        // Report the outer entries first, so everything comes out ordered by start offset
+        reportEnclosing(parents[index], offset, consumer);
+
+        if (ends[index] > offset)
+        {
+            consumer.accept(index);
+        }
+    }
+
+    private int lastStartingBefore(int offset)
+    {
+        // Binary search for the last entry whose start is smaller than the offset
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+
+            if (starts[middle] < offset)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+
+        return high;
+    }
+
+    public void write(@NotNull DataOutput out) throws IOException
+    {
+        // Entries are sorted by start, so each start is stored as the distance from the last one
+        DataInputOutputUtil.writeINT(out, size);
+        int last = 0;
+
+        for (int i = 0; i < size; i++)
+        {
+            DataInputOutputUtil.writeINT(out, starts[i] - last);
+            DataInputOutputUtil.writeINT(out, ends[i] - starts[i]);
+            DataInputOutputUtil.writeINT(out, kinds[i]);
+            DataInputOutputUtil.writeINT(out, depths[i]);
+            last = starts[i];
+        }
+    }
+
+    @NotNull
+    public static Amphibian2IntervalIndex read(@NotNull DataInput in) throws IOException
+    {
+        Builder builder = new Builder();
+        int size = DataInputOutputUtil.readINT(in);
+        int start = 0;
+
+        for (int i = 0; i < size; i++)
+        {
+            start += DataInputOutputUtil.readINT(in);
+            int end = start + DataInputOutputUtil.readINT(in);
+            builder.add(start, end, DataInputOutputUtil.readINT(in), DataInputOutputUtil.readINT(in));
+        }
+
+        return builder.build();
+    }
+
+    public static final class Builder
+    {
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int[] kinds = new int[16];
+        private int[] depths = new int[16];
+        private int size;
+
+        public void add(int start, int end, int kind, int depth)
+        {
+            if (size == starts.length)
+            {
+                // Grow all arrays together
+                int capacity = size * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                kinds = Arrays.copyOf(kinds, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+            }
+
+            starts[size] = start;
+            ends[size] = end;
+            kinds[size] = kind;
+            depths[size] = depth;
+            size++;
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        @NotNull
+        public Amphibian2IntervalIndex build()
+        {
+            if (!isSorted())
+            {
+                sort();
+            }
+
+            // Trim the arrays to the entries
+            int[] s = Arrays.copyOf(starts, size);
+            int[] e = Arrays.copyOf(ends, size);
+            int[] k = Arrays.copyOf(kinds, size);
+            int[] d = Arrays.copyOf(depths, size);
+            int[] parents = new int[size];
+
+            // Find the parent of every entry with a stack of the entries still open, only dropping the ones that
+            // ended before the entry starts, so a partial overlap can't drop an entry that still encloses later ones
+            int[] stack = new int[size];
+            int top = 0;
+            boolean nested = true;
+
+            for (int i = 0; i < size; i++)
+            {
+                while (top > 0 && e[stack[top - 1]] <= s[i])
+                {
+                    top--;
+                }
+
+                // The innermost enclosing entry is the last one still open that ends at or after this one
+                int parent = top - 1;
+
+                while (parent >= 0 && e[stack[parent]] < e[i])
+                {
+                    parent--;
+                }
+
+                // Anything open above the parent overlaps this entry without enclosing it
+                if (parent != top - 1)
+                {
+                    nested = false;
+                }
+
+                parents[i] = parent >= 0 ? stack[parent] : -1;
+                stack[top++] = i;
+            }
+
+            return new Amphibian2IntervalIndex(s, e, k, d, parents, nested ? null : maxEnds(e), size);
+        }
+
+        private int[] maxEnds(int[] e)
+        {
+            int[] result = new int[size];
+            int max = Integer.MIN_VALUE;
+
+            for (int i = 0; i < size; i++)
+            {
+                max = Math.max(max, e[i]);
+                result[i] = max;
+            }
+
+            return result;
+        }
+
+        private boolean isSorted()
+        {
+            for (int i = 1; i < size; i++)
+            {
+                if (compare(i - 1, i) > 0)
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private int compare(int a, int b)
+        {
+            // By start offset, then the longer entry first
+            if (starts[a] != starts[b])
+            {
+                return Integer.compare(starts[a], starts[b]);
+            }
+
+            return Integer.compare(ends[b], ends[a]);
+        }
+
+        private void sort()
+        {
+            // Sort a permutation of the entries, then apply it to every array
+            int[] order = new int[size];
+
+            for (int i = 0; i < size; i++)
+            {
+                order[i] = i;
+            }
+
+            mergeSort(order, new int[size], 0, size);
+
+            starts = permute(starts, order);
+            ends = permute(ends, order);
+            kinds = permute(kinds, order);
+            depths = permute(depths, order);
+        }
+
+        private void mergeSort(int[] order, int[] buffer, int from, int to)
+        {
+            if (to - from < 2)
+            {
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            mergeSort(order, buffer, from, middle);
+            mergeSort(order, buffer, middle, to);
+
+            // Merge both halves through the buffer, keeping equal entries in their order
+            int left = from;
+            int right = middle;
+
+            for (int i = from; i < to; i++)
+            {
+                if (right >= to || (left < middle && compare(order[left], order[right]) <= 0))
+                {
+                    buffer[i] = order[left++];
+                }
+                else
+                {
+                    buffer[i] = order[right++];
+                }
+            }
+
+            System.arraycopy(buffer, from, order, from, to - from);
+        }
+
+        private int[] permute(int[] values, int[] order)
+        {
+            int[] result = new int[size];
+
+            for (int i = 0; i < size; i++)
+            {
+                result[i] = values[order[i]];
+            }
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiClassInitializer;
+import com.intellij.psi.PsiClassOwner;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiMethod;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Amphibian2JavaBlockProvider implements Amphibian2BlockProvider
+{
+    @NotNull
+    @Override
+    public PsiElementVisitor createVisitor(@NotNull Amphibian2SpanSink sink, @NotNull Amphibian2ColoringLevel level)
+    {
+        // Java blocks are colored by the handlers of the color generator
+        return Amphibian2ColorGenerator.createJavaVisitor(sink, level);
+    }
+
+    @Nullable
+    @Override
+    public PsiElement getRecolorRoot(@NotNull PsiElement changed)
+    {
+        // Fields are colored by their class, but methods and initializers of a named class only color themselves
+        for (PsiElement element = changed; element != null && !(element instanceof PsiFile); element = element.getParent())
+        {
+            if ((element instanceof PsiMethod || element instanceof PsiClassInitializer) && isClassMember(element))
+            {
+                return element;
+            }
+        }
+
+        return null;
+    }
+
+    @NotNull
+    @Override
+    public List<PsiElement> getRecolorRoots(@NotNull PsiFile file)
+    {
+        List<PsiElement> roots = new ArrayList<>();
+
+        if (file instanceof PsiClassOwner)
+        {
+            for (PsiClass clazz : ((PsiClassOwner) file).getClasses())
+            {
+                addMembers(clazz, roots);
+            }
+        }
+
+        return roots;
+    }
+
+    private static void addMembers(@NotNull PsiClass clazz, @NotNull List<PsiElement> roots)
+    {
+        // The methods and initializers written in the class and its named inner classes
+        for (PsiElement child = clazz.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child instanceof PsiMethod || child instanceof PsiClassInitializer)
+            {
+                roots.add(child);
+            }
+            else if (child instanceof PsiClass)
+            {
+                addMembers((PsiClass) child, roots);
+            }
+        }
+    }
+
+    private static boolean isClassMember(@NotNull PsiElement element)
+    {
+        // Members of anonymous or local classes are part of a statement or field of the outer class
+        PsiElement parent = element.getParent();
+
+        while (parent instanceof PsiClass)
+        {
+            parent = parent.getParent();
+        }
+
+        return parent instanceof PsiFile;
+    }
+}
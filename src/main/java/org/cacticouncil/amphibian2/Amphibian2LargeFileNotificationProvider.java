@@ -0,0 +1,50 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.ui.EditorNotificationPanel;
+import com.intellij.ui.EditorNotifications;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+public class Amphibian2LargeFileNotificationProvider extends EditorNotifications.Provider<EditorNotificationPanel>
+        implements DumbAware
+{
+    private static final Key<EditorNotificationPanel> KEY = Key.create("amphibian2.large.file.notification");
+
+    private final Project project;
+
+    public Amphibian2LargeFileNotificationProvider(@NotNull Project project)
+    {
+        this.project = project;
+    }
+
+    @NotNull
+    @Override
+    public Key<EditorNotificationPanel> getKey()
+    {
+        return KEY;
+    }
+
+    @Nullable
+    @Override
+    public EditorNotificationPanel createNotificationPanel(@NotNull VirtualFile file, @NotNull FileEditor fileEditor)
+    {
+        Amphibian2ColoringLevel level = Amphibian2LargeFiles.getReducedLevel(file);
+
+        if (level == null)
+        {
+            // The file is colored fully
+            return null;
+        }
+
+        EditorNotificationPanel panel = new EditorNotificationPanel();
+        panel.setText("Amphibian 2 colors " + level.getDescription() + " because this file is very large");
+        panel.createActionLabel("Restore full coloring", () -> Amphibian2LargeFiles.restoreFullColoring(project, file));
+
+        return panel;
+    }
+}
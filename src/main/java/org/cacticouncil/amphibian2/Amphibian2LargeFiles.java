@@ -0,0 +1,98 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.ui.EditorNotifications;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+public final class Amphibian2LargeFiles
+{
+    // The reduced level the last pass used for a file, absent when it was colored fully
+    private static final Key<Amphibian2ColoringLevel> LEVEL_KEY = Key.create("amphibian2.large.file.level");
+
+    // Set when the user asked for full coloring of a file regardless of its size
+    private static final Key<Boolean> FULL_KEY = Key.create("amphibian2.large.file.full");
+
+    private Amphibian2LargeFiles()
+    {
+    }
+
+    @NotNull
+    public static Amphibian2ColoringLevel getStartLevel(@Nullable VirtualFile file, int lineCount)
+    {
+        if (isRestored(file))
+        {
+            return Amphibian2ColoringLevel.FULL;
+        }
+
+        // Files longer than the line threshold start with block headers only
+        return lineCount > Amphibian2Settings.getInstance().largeFileLines
+                ? Amphibian2ColoringLevel.BLOCKS : Amphibian2ColoringLevel.FULL;
+    }
+
+    @Nullable
+    public static Amphibian2Budget createBudget(@Nullable VirtualFile file, @NotNull Amphibian2SpanSink sink)
+    {
+        if (isRestored(file))
+        {
+            // No limits once the user restored full coloring
+            return null;
+        }
+
+        Amphibian2Settings settings = Amphibian2Settings.getInstance();
+        return new Amphibian2Budget(sink, settings.largeFileElements, settings.annotationBudget);
+    }
+
+    public static int getSpanLimit(@Nullable VirtualFile file)
+    {
+        // The annotation budget, for models that were not built by a walk
+        return isRestored(file) ? Integer.MAX_VALUE : Amphibian2Settings.getInstance().annotationBudget;
+    }
+
+    private static boolean isRestored(@Nullable VirtualFile file)
+    {
+        return file != null && file.getUserData(FULL_KEY) != null;
+    }
+
+    @Nullable
+    public static Amphibian2ColoringLevel getReducedLevel(@NotNull VirtualFile file)
+    {
+        return file.getUserData(LEVEL_KEY);
+    }
+
+    public static void setLevel(@NotNull Project project, @Nullable VirtualFile file, @NotNull Amphibian2ColoringLevel level)
+    {
+        if (file == null)
+        {
+            return;
+        }
+
+        Amphibian2ColoringLevel reduced = level == Amphibian2ColoringLevel.FULL ? null : level;
+
+        if (file.getUserData(LEVEL_KEY) != reduced)
+        {
+            // Show or hide the notice when the level changes
+            file.putUserData(LEVEL_KEY, reduced);
+            EditorNotifications.getInstance(project).updateNotifications(file);
+        }
+    }
+
+    public static void restoreFullColoring(@NotNull Project project, @NotNull VirtualFile file)
+    {
+        file.putUserData(FULL_KEY, Boolean.TRUE);
+        Amphibian2BlockModel.invalidateAll();
+
+        PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+
+        if (psiFile != null)
+        {
+            // Color the file again without limits
+            DaemonCodeAnalyzer.getInstance(project).restart(psiFile);
+        }
+    }
+}
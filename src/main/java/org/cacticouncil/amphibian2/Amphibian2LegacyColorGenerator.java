@@ -0,0 +1,518 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.*;
+import org.jetbrains.annotations.NotNull;
+
+// The block handlers of Amphibian2ColorGenerator exactly as the plugin first shipped them, kept as the reference
+// shadow mode checks the block model against. Only the annotations became spans handed to a sink; every rule is
+// the original one, including the inherited fields and the failure on empty if blocks. Don't change it along with
+// Amphibian2ColorGenerator; a difference between the two is exactly what shadow mode looks for
+final class Amphibian2LegacyColorGenerator
+{
+    private Amphibian2LegacyColorGenerator()
+    {
+    }
+
+    static void getBlockColor(@NotNull PsiElement element, @NotNull Amphibian2SpanSink sink)
+    {
+        // For each element of the code, get the correct block color
+        if (element instanceof PsiImportStatement)
+        {
+            // Get the import color
+            getImportBlockColor(element, sink);
+        }
+        else if (element instanceof PsiClass)
+        {
+            // Get the class color
+            getClassBlockColor((PsiClass) element, sink);
+        }
+        else if (element instanceof PsiMethod)
+        {
+            // Get the method color
+            getMethodBlockColor((PsiMethod) element, sink);
+        }
+        else if (element instanceof PsiConditionalLoopStatement)
+        {
+            // Get the condition color for the generic conditions for loops
+            getConditionBlockColor((PsiConditionalLoopStatement) element, sink);
+
+            if (element instanceof PsiWhileStatement)
+            {
+                // Get the condition color specific to while loops
+                getWhileBlockColor((PsiWhileStatement) element, sink);
+            }
+            else if (element instanceof PsiDoWhileStatement)
+            {
+                // Get the condition color specific to do while loops
+                getDoWhileBlockColor((PsiDoWhileStatement) element, sink);
+            }
+            else if (element instanceof PsiForStatement)
+            {
+                // Get the condition color specific to for loops
+                getForBlockColor((PsiForStatement) element, sink);
+            }
+        }
+        else if (element instanceof PsiIfStatement)
+        {
+            // Get the condition color specific to if statements
+            getIfBlockColor((PsiIfStatement) element, sink);
+        }
+        else if (element instanceof  PsiTryStatement)
+        {
+            // Get the condition color specific to try catch blocks
+            getTryBlockColor((PsiTryStatement) element, sink);
+        }
+        else if (element instanceof PsiDeclarationStatement || element instanceof PsiExpressionStatement
+            || element instanceof PsiReturnStatement || element instanceof PsiBreakStatement || element instanceof PsiContinueStatement)
+        {
+            // Get generic statement color for declaration, expression, and keyword (i.e. break, return) statements
+            getStatementBlockColor(element, sink);
+        }
+    }
+
+    private static void createAnnotation(@NotNull Amphibian2SpanSink sink, TextRange range, Amphibian2BlockKind kind)
+    {
+        // Hand the span to the sink, which decides how it ends up in the editor
+        sink.addSpan(range.getStartOffset(), range.getEndOffset(), kind);
+    }
+
+    private static void getImportBlockColor(@NotNull PsiElement element, @NotNull Amphibian2SpanSink sink)
+    {
+        // Get the range of the import text
+        TextRange range = TextRange.from(element.getTextRange().getStartOffset(), element.getTextLength());
+        createAnnotation(sink, range, Amphibian2BlockKind.IMPORT);
+    }
+
+    private static void getClassBlockColor(@NotNull PsiClass clazz, @NotNull Amphibian2SpanSink sink)
+    {
+        // Get the children elements which are all the elements included in a class definition
+        PsiElement[] elements = clazz.getChildren();
+
+        // Iterate over each child element
+        for (PsiElement e : elements)
+        {
+            if (e instanceof PsiModifierList || (e instanceof PsiKeyword && e.getText().equals("class")))
+            {
+                // If we have a modifier (i.e. public) or the class keyword get the range of text + 1 for whitespace
+                TextRange range = TextRange.from(e.getTextRange().getStartOffset(), e.getTextLength() + 1);
+                createAnnotation(sink, range, Amphibian2BlockKind.CLASS);
+            }
+        }
+
+        // Get the class name and text range
+        PsiIdentifier name = clazz.getNameIdentifier();
+
+        if (name != null)
+        {
+            // If the name exists, color it
+            TextRange nameRange = TextRange.from(name.getTextRange().getStartOffset(), name.getTextLength());
+            createAnnotation(sink, nameRange, Amphibian2BlockKind.CLASS);
+        }
+
+        // Get the left brace
+        PsiElement lbrace = clazz.getLBrace();
+
+        if (lbrace != null)
+        {
+            TextRange lbRange = TextRange.from(lbrace.getTextRange().getStartOffset(), lbrace.getTextLength());
+            createAnnotation(sink, lbRange, Amphibian2BlockKind.CLASS);
+        }
+
+        // Get the right brace
+        PsiElement rbrace = clazz.getRBrace();
+
+        if (rbrace != null)
+        {
+            TextRange rbRange = TextRange.from(rbrace.getTextRange().getStartOffset(), rbrace.getTextLength());
+            createAnnotation(sink, rbRange, Amphibian2BlockKind.CLASS);
+        }
+
+        // Get all the fields declared in the class
+        PsiField[] fields = clazz.getAllFields();
+
+        for (PsiField field : fields)
+        {
+            // Color each field, if any
+            TextRange fieldRange = TextRange.from(field.getTextRange().getStartOffset(), field.getTextLength());
+            createAnnotation(sink, fieldRange, Amphibian2BlockKind.CLASS);
+        }
+    }
+
+    private static void getMethodBlockColor(@NotNull PsiMethod method, @NotNull Amphibian2SpanSink sink)
+    {
+        // Get the modifier list
+        PsiModifierList modifierList = method.getModifierList();
+
+        // Get the text range of the modifier list
+        TextRange modRange = TextRange.from(modifierList.getTextRange().getStartOffset(), modifierList.getTextLength() + 1);
+        createAnnotation(sink, modRange, Amphibian2BlockKind.METHOD);
+
+        // Get the return type
+        PsiTypeElement ret = method.getReturnTypeElement();
+
+        if (ret != null)
+        {
+            // Get the text range of the return
+            TextRange retRange = TextRange.from(ret.getTextRange().getStartOffset(), ret.getTextLength() + 1);
+            createAnnotation(sink, retRange, Amphibian2BlockKind.METHOD);
+        }
+
+        // Get the name of the method
+        PsiIdentifier id = method.getNameIdentifier();
+
+        if (id != null)
+        {
+            // Get the text range of the method name
+            TextRange idRange = TextRange.from(id.getTextRange().getStartOffset(), id.getTextLength());
+            createAnnotation(sink, idRange, Amphibian2BlockKind.METHOD);
+        }
+
+        // Get the parameters
+        PsiParameterList parameterList = method.getParameterList();
+
+        // Get the text range of the parameter list
+        TextRange paramRange = TextRange.from(parameterList.getTextRange().getStartOffset(), parameterList.getTextLength());
+        createAnnotation(sink, paramRange, Amphibian2BlockKind.METHOD);
+
+        // Get the body code block
+        PsiCodeBlock body = method.getBody();
+
+        if (body != null)
+        {
+            // Color the braces
+            getBraceBlockColor(body, sink, Amphibian2BlockKind.METHOD);
+        }
+
+    }
+
+    private static void getConditionBlockColor(@NotNull PsiConditionalLoopStatement element, @NotNull Amphibian2SpanSink sink)
+    {
+        // Get the children element
+        PsiElement[] elements = element.getChildren();
+
+        // Iterate over the children elements
+        for (PsiElement e : elements)
+        {
+            if (e instanceof PsiKeyword)
+            {
+                // Get the range + 1 for whitespace of the keyword
+                TextRange range = TextRange.from(e.getTextRange().getStartOffset(), e.getTextLength() + 1);
+                createAnnotation(sink, range, Amphibian2BlockKind.CONDITION);
+            }
+            else if (e instanceof PsiBlockStatement)
+            {
+                // Get the code block for the right and left brace tokens
+                PsiCodeBlock codeBlock = ((PsiBlockStatement) e).getCodeBlock();
+                getBraceBlockColor(codeBlock, sink, Amphibian2BlockKind.CONDITION);
+            }
+        }
+
+        // Get the condition
+        PsiExpression expression = element.getCondition();
+
+        if (expression != null)
+        {
+            TextRange exprRange = TextRange.from(expression.getTextRange().getStartOffset(), expression.getTextLength());
+            createAnnotation(sink, exprRange, Amphibian2BlockKind.CONDITION);
+        }
+    }
+
+    private static void getWhileBlockColor(@NotNull PsiWhileStatement whileStatement, @NotNull Amphibian2SpanSink sink)
+    {
+        // Get the left parentheses
+        PsiElement lParenth = whileStatement.getLParenth();
+
+        if (lParenth != null)
+        {
+            TextRange lPRange = TextRange.from(lParenth.getTextRange().getStartOffset(), lParenth.getTextLength());
+            createAnnotation(sink, lPRange, Amphibian2BlockKind.CONDITION);
+        }
+
+        // Get the right parentheses
+        PsiElement rParenth = whileStatement.getRParenth();
+
+        if (rParenth != null)
+        {
+            TextRange rPRange = TextRange.from(rParenth.getTextRange().getStartOffset(), rParenth.getTextLength());
+            createAnnotation(sink, rPRange, Amphibian2BlockKind.CONDITION);
+        }
+    }
+
+    private static void getDoWhileBlockColor(@NotNull PsiDoWhileStatement doWhileStatement, @NotNull Amphibian2SpanSink sink)
+    {
+        // Get the left parentheses
+        PsiElement lParenth = doWhileStatement.getLParenth();
+
+        if (lParenth != null)
+        {
+            TextRange lPRange = TextRange.from(lParenth.getTextRange().getStartOffset(), lParenth.getTextLength());
+            createAnnotation(sink, lPRange, Amphibian2BlockKind.CONDITION);
+        }
+
+        // Get the right parentheses
+        PsiElement rParenth = doWhileStatement.getRParenth();
+
+        if (rParenth != null)
+        {
+            TextRange rPRange = TextRange.from(rParenth.getTextRange().getStartOffset(), rParenth.getTextLength());
+            createAnnotation(sink, rPRange, Amphibian2BlockKind.CONDITION);
+        }
+    }
+
+    private static void getForBlockColor(@NotNull PsiForStatement forStatement, @NotNull Amphibian2SpanSink sink)
+    {
+        // Get the initialization statement
+        PsiStatement init = forStatement.getInitialization();
+
+        if (init != null)
+        {
+            // If there is an initialization, color it
+            TextRange initRange = TextRange.from(init.getTextRange().getStartOffset(), init.getTextLength());
+            createAnnotation(sink, initRange, Amphibian2BlockKind.CONDITION);
+        }
+
+        // Get the update statement
+        PsiStatement update = forStatement.getUpdate();
+
+        if (update != null)
+        {
+            TextRange updateRange = TextRange.from(update.getTextRange().getStartOffset(), update.getTextLength());
+            createAnnotation(sink, updateRange, Amphibian2BlockKind.CONDITION);
+        }
+
+        // Get the left parentheses
+        PsiElement lParenth = forStatement.getLParenth();
+
+        if (lParenth != null)
+        {
+            TextRange lPRange = TextRange.from(lParenth.getTextRange().getStartOffset(), lParenth.getTextLength());
+            createAnnotation(sink, lPRange, Amphibian2BlockKind.CONDITION);
+        }
+
+        // Get the right parentheses
+        PsiElement rParenth = forStatement.getRParenth();
+
+        if (rParenth != null)
+        {
+            TextRange rPRange = TextRange.from(rParenth.getTextRange().getStartOffset(), rParenth.getTextLength());
+            createAnnotation(sink, rPRange, Amphibian2BlockKind.CONDITION);
+        }
+
+    }
+
+    private static void getIfBlockColor(@NotNull PsiIfStatement ifStatement, @NotNull Amphibian2SpanSink sink)
+    {
+        Project project = ifStatement.getProject();
+        PsiFile file = ifStatement.getContainingFile();
+        Document document = PsiDocumentManager.getInstance(project).getDocument(file);
+
+        // Get the children element
+        PsiElement[] elements = ifStatement.getChildren();
+
+        // Iterate over the children elements
+        for (PsiElement e : elements)
+        {
+            if (e instanceof PsiKeyword)
+            {
+                // Get the range + 1 for whitespace of the keyword
+                TextRange range = TextRange.from(e.getTextRange().getStartOffset(), e.getTextLength() + 1);
+                createAnnotation(sink, range, Amphibian2BlockKind.CONDITION);
+            }
+            else if (e instanceof PsiBlockStatement)
+            {
+                // Get the code block for the right and left brace tokens
+                PsiCodeBlock codeBlock = ((PsiBlockStatement) e).getCodeBlock();
+                getBraceBlockColor(codeBlock, sink, Amphibian2BlockKind.CONDITION);
+
+                // Get the indent color
+                getIndentBlockColor(codeBlock, sink, document, Amphibian2BlockKind.CONDITION);
+            }
+        }
+
+        // Get the condition
+        PsiExpression expression = ifStatement.getCondition();
+
+        if (expression != null)
+        {
+            TextRange exprRange = TextRange.from(expression.getTextRange().getStartOffset(), expression.getTextLength());
+            createAnnotation(sink, exprRange, Amphibian2BlockKind.CONDITION);
+        }
+
+        // Get the left parentheses
+        PsiElement lParenth = ifStatement.getLParenth();
+
+        if (lParenth != null)
+        {
+            TextRange lPRange = TextRange.from(lParenth.getTextRange().getStartOffset(), lParenth.getTextLength());
+            createAnnotation(sink, lPRange, Amphibian2BlockKind.CONDITION);
+        }
+
+        // Get the right parentheses
+        PsiElement rParenth = ifStatement.getRParenth();
+
+        if (rParenth != null)
+        {
+            TextRange rPRange = TextRange.from(rParenth.getTextRange().getStartOffset(), rParenth.getTextLength());
+            createAnnotation(sink, rPRange, Amphibian2BlockKind.CONDITION);
+        }
+    }
+
+    private static void getTryBlockColor(@NotNull PsiTryStatement tryStatement, @NotNull Amphibian2SpanSink sink)
+    {
+        // Get the children elements
+        PsiElement[] elements = tryStatement.getChildren();
+
+        for (PsiElement element : elements)
+        {
+            if (element instanceof PsiKeyword)
+            {
+                // Color the try keyword
+                TextRange range = TextRange.from(element.getTextRange().getStartOffset(), element.getTextLength() + 1);
+                createAnnotation(sink, range, Amphibian2BlockKind.CONDITION);
+            }
+        }
+
+        PsiCodeBlock tryBlock = tryStatement.getTryBlock();
+
+        if (tryBlock != null)
+        {
+            // Color the braces on the try block portion
+            getBraceBlockColor(tryBlock, sink, Amphibian2BlockKind.CONDITION);
+        }
+
+        // Get all of the catch sections
+        PsiCatchSection[] catchSections = tryStatement.getCatchSections();
+
+        for (PsiCatchSection catchSection : catchSections)
+        {
+            // Get the catch section's children
+            PsiElement[] catchElements = catchSection.getChildren();
+
+            for (PsiElement catchElement : catchElements)
+            {
+                if (catchElement instanceof PsiKeyword)
+                {
+                    // Color the catch keyword
+                    TextRange range = TextRange.from(catchElement.getTextRange().getStartOffset(), catchElement.getTextLength() + 1);
+                    createAnnotation(sink, range, Amphibian2BlockKind.CONDITION);
+                }
+            }
+
+            // Get the parameter of the current catch section
+            PsiParameter parameter = catchSection.getParameter();
+
+            if (parameter != null)
+            {
+                TextRange range = TextRange.from(parameter.getTextRange().getStartOffset(), parameter.getTextLength() + 1);
+                createAnnotation(sink, range, Amphibian2BlockKind.CONDITION);
+            }
+
+            // Get the left parentheses
+            PsiElement lParenth = catchSection.getLParenth();
+
+            if (lParenth != null)
+            {
+                TextRange lPRange = TextRange.from(lParenth.getTextRange().getStartOffset(), lParenth.getTextLength());
+                createAnnotation(sink, lPRange, Amphibian2BlockKind.CONDITION);
+            }
+
+            // Get the right parentheses
+            PsiElement rParenth = catchSection.getRParenth();
+
+            if (rParenth != null)
+            {
+                TextRange rPRange = TextRange.from(rParenth.getTextRange().getStartOffset(), rParenth.getTextLength());
+                createAnnotation(sink, rPRange, Amphibian2BlockKind.CONDITION);
+            }
+
+            // Get the catch code block
+            PsiCodeBlock codeBlock = catchSection.getCatchBlock();
+
+            if (codeBlock != null)
+            {
+                // Color the catch code block braces
+                getBraceBlockColor(codeBlock, sink, Amphibian2BlockKind.CONDITION);
+            }
+        }
+    }
+
+    private static void getBraceBlockColor(@NotNull PsiCodeBlock codeBlock, @NotNull Amphibian2SpanSink sink, Amphibian2BlockKind kind)
+    {
+        // Get the left brace
+        PsiJavaToken lBrace = codeBlock.getLBrace();
+
+        if (lBrace != null)
+        {
+            // If the left brace exists color it with the designated color
+            TextRange lBRange = TextRange.from(lBrace.getTextRange().getStartOffset(), lBrace.getTextLength());
+            createAnnotation(sink, lBRange, kind);
+        }
+
+        // Get the right brace
+        PsiJavaToken rBrace = codeBlock.getRBrace();
+
+        if (rBrace != null)
+        {
+            // If the right brace exists color it with the designated color
+            TextRange rBRange = TextRange.from(rBrace.getTextRange().getStartOffset(), rBrace.getTextLength());
+            createAnnotation(sink, rBRange, kind);
+        }
+    }
+
+    private static void getIndentBlockColor(@NotNull PsiCodeBlock codeBlock, @NotNull Amphibian2SpanSink sink,
+                                            Document document, Amphibian2BlockKind kind)
+    {
+        if (document == null)
+        {
+            // Return if the document does not exist
+            return;
+        }
+
+        // Get the statements in the code block
+        PsiStatement[] statements = codeBlock.getStatements();
+
+        // Get the start and end offset of the code block (not including the braces)
+        int startOffset = statements[0].getTextRange().getStartOffset();
+        int endOffset = statements[statements.length - 1].getTextRange().getEndOffset();
+
+        // Get the line numbers of the starting and ending lines of the code block
+        int startLine = document.getLineNumber(startOffset);
+        int endLine = document.getLineNumber(endOffset);
+
+        // Iterate over each line in the code block
+        for (int i = startLine; i <= endLine; i++)
+        {
+            // Get the start and end offset of the current line
+            int start = document.getLineStartOffset(i);
+            int end = document.getLineEndOffset(i);
+
+            // Get the text of the line based on the offsets
+            String text = document.getText(TextRange.from(start, end - start));
+
+            int j = 0;
+            for (; j < text.length(); j++)
+            {
+                // Count the number of space or tab characters for the indent
+                if (((int) text.charAt(j) != 32) && ((int) text.charAt(j) != 9))
+                {
+                    // Count until a character that isn't a space or tab is encountered
+                    break;
+                }
+            }
+
+            // Create an annotation for the indent of the line
+            TextRange range = TextRange.from(start, j);
+            createAnnotation(sink, range, kind);
+        }
+    }
+
+    private static void getStatementBlockColor(@NotNull PsiElement element, @NotNull Amphibian2SpanSink sink)
+    {
+        // Get the range of the text
+        TextRange range = TextRange.from(element.getTextRange().getStartOffset(), element.getTextLength());
+        createAnnotation(sink, range, Amphibian2BlockKind.STATEMENT);
+    }
+}
@@ -0,0 +1,308 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import jdk.jfr.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class Amphibian2Metrics
+{
+    // The handlers of Amphibian2ColorGenerator that are timed separately
+    public enum Handler
+    {
+        IMPORT, CLASS, METHOD, CONDITION, WHILE, DO_WHILE, FOR, IF, TRY, STATEMENT
+    }
+
+    private static final Handler[] HANDLERS = Handler.values();
+
+    // The record of the pass running on the current thread, if any
+    private static final ThreadLocal<Record> CURRENT = new ThreadLocal<>();
+
+    // The slowest pass of every file colored in this session, keyed by path
+    private static final ConcurrentMap<String, Record> SLOWEST = new ConcurrentHashMap<>();
+
+    // Every palette lookup and rebuild of this session, including the ones made while painting outside any pass
+    private static final AtomicLong SCHEME_LOOKUPS = new AtomicLong();
+
+    private Amphibian2Metrics()
+    {
+    }
+
+    @Nullable
+    public static Record begin(@NotNull PsiFile file)
+    {
+        if (!Amphibian2Settings.getInstance().collectMetrics)
+        {
+            return null;
+        }
+
+        // Start recording a pass over the file on this thread
+        Record record = new Record(getPath(file));
+        record.event.begin();
+        CURRENT.set(record);
+
+        return record;
+    }
+
+    public static void end(@Nullable Record record)
+    {
+        if (record == null)
+        {
+            return;
+        }
+
+        CURRENT.remove();
+        record.event.end();
+        record.nanos = System.nanoTime() - record.startNanos;
+
+        publish(record);
+
+        if (record.event.shouldCommit())
+        {
+            // Emit the pass and its handlers to Java Flight Recorder
+            record.event.file = record.file;
+            record.event.elements = record.elements;
+            record.event.annotations = record.annotations;
+            record.event.schemeLookups = record.schemeLookups;
+            record.event.commit();
+
+            for (Handler handler : HANDLERS)
+            {
+                if (record.handlerCalls[handler.ordinal()] > 0)
+                {
+                    HandlerEvent handlerEvent = new HandlerEvent();
+                    handlerEvent.file = record.file;
+                    handlerEvent.handler = handler.name();
+                    handlerEvent.calls = record.handlerCalls[handler.ordinal()];
+                    handlerEvent.nanos = record.handlerNanos[handler.ordinal()];
+                    handlerEvent.commit();
+                }
+            }
+        }
+    }
+
+    @Nullable
+    public static Record current()
+    {
+        return CURRENT.get();
+    }
+
+    @Nullable
+    public static Record enter(@Nullable Record record)
+    {
+        // Make a record current for the duration of one call, returning the one it replaces
+        Record previous = CURRENT.get();
+        CURRENT.set(record);
+        return previous;
+    }
+
+    public static void exit(@Nullable Record previous)
+    {
+        if (previous == null)
+        {
+            CURRENT.remove();
+        }
+        else
+        {
+            CURRENT.set(previous);
+        }
+    }
+
+    public static void publish(@NotNull Record record)
+    {
+        // Keep the slowest record of the file
+        SLOWEST.merge(record.file, record, (a, b) -> a.nanos >= b.nanos ? a : b);
+    }
+
+    @NotNull
+    public static Record createRecord(@NotNull PsiFile file)
+    {
+        // A record that is filled in place, for callers without a clear start and end
+        return new Record(getPath(file));
+    }
+
+    public static long start(@Nullable Record record)
+    {
+        return record == null ? 0 : System.nanoTime();
+    }
+
+    public static void stop(@Nullable Record record, @NotNull Handler handler, long start)
+    {
+        if (record != null)
+        {
+            record.handlerNanos[handler.ordinal()] += System.nanoTime() - start;
+            record.handlerCalls[handler.ordinal()]++;
+        }
+    }
+
+    public static void schemeLookup()
+    {
+        if (!Amphibian2Settings.getInstance().collectMetrics)
+        {
+            return;
+        }
+
+        // Count it for the session, and for the pass running on this thread, if any
+        SCHEME_LOOKUPS.incrementAndGet();
+        Record record = CURRENT.get();
+
+        if (record != null)
+        {
+            record.schemeLookups++;
+        }
+    }
+
+    public static long getSchemeLookups()
+    {
+        return SCHEME_LOOKUPS.get();
+    }
+
+    @NotNull
+    public static List<Record> getSlowestFiles(int limit)
+    {
+        List<Record> records = new ArrayList<>(SLOWEST.values());
+        records.sort(Comparator.comparingLong(Record::getNanos).reversed());
+        return records.size() > limit ? records.subList(0, limit) : records;
+    }
+
+    public static void clear()
+    {
+        SLOWEST.clear();
+        SCHEME_LOOKUPS.set(0);
+    }
+
+    @NotNull
+    private static String getPath(@NotNull PsiFile file)
+    {
+        VirtualFile virtualFile = file.getVirtualFile();
+        return virtualFile != null ? virtualFile.getPresentableUrl() : file.getName();
+    }
+
+    public static final class Record
+    {
+        private final String file;
+        private final long startNanos = System.nanoTime();
+        private final PassEvent event = new PassEvent();
+        private final long[] handlerNanos = new long[HANDLERS.length];
+        private final int[] handlerCalls = new int[HANDLERS.length];
+
+        private long nanos;
+        private int elements;
+        private int annotations;
+        private int schemeLookups;
+
+        private Record(@NotNull String file)
+        {
+            this.file = file;
+        }
+
+        public void elementVisited()
+        {
+            elements++;
+        }
+
+        public void addAnnotations(int count)
+        {
+            annotations += count;
+        }
+
+        public void addNanos(long time)
+        {
+            nanos += time;
+        }
+
+        @NotNull
+        public String getFile()
+        {
+            return file;
+        }
+
+        public long getNanos()
+        {
+            return nanos;
+        }
+
+        public int getElements()
+        {
+            return elements;
+        }
+
+        public int getAnnotations()
+        {
+            return annotations;
+        }
+
+        public int getSchemeLookups()
+        {
+            return schemeLookups;
+        }
+
+        @Nullable
+        public Handler getSlowestHandler()
+        {
+            Handler slowest = null;
+
+            for (Handler handler : HANDLERS)
+            {
+                if (handlerCalls[handler.ordinal()] > 0
+                        && (slowest == null || handlerNanos[handler.ordinal()] > handlerNanos[slowest.ordinal()]))
+                {
+                    slowest = handler;
+                }
+            }
+
+            return slowest;
+        }
+
+        public long getHandlerNanos(@NotNull Handler handler)
+        {
+            return handlerNanos[handler.ordinal()];
+        }
+    }
+
+    @Name("org.cacticouncil.amphibian2.HighlightingPass")
+    @Label("Amphibian 2 Highlighting Pass")
+    @Category("Amphibian 2")
+    @Description("Block coloring of one file")
+    static final class PassEvent extends Event
+    {
+        @Label("File")
+        String file;
+
+        @Label("Elements Visited")
+        int elements;
+
+        @Label("Annotations Created")
+        int annotations;
+
+        @Label("Scheme Lookups")
+        int schemeLookups;
+    }
+
+    @Name("org.cacticouncil.amphibian2.Handler")
+    @Label("Amphibian 2 Block Handler")
+    @Category("Amphibian 2")
+    @Description("Total time spent in one block handler during a highlighting pass")
+    static final class HandlerEvent extends Event
+    {
+        @Label("File")
+        String file;
+
+        @Label("Handler")
+        String handler;
+
+        @Label("Calls")
+        int calls;
+
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+}
@@ -0,0 +1,233 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.LogicalPosition;
+import com.intellij.openapi.editor.ScrollType;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+public final class Amphibian2Overview extends JComponent
+{
+    private static final Key<Amphibian2Overview> OVERVIEW_KEY = Key.create("amphibian2.overview");
+
+    // Height of each cached image, in pixels of the strip
+    private static final int TILE_HEIGHT = 256;
+
+    private final Editor editor;
+    private Amphibian2BlockModel model;
+
+    // The line count and size the tiles were drawn for; a change to either redraws all of them
+    private int tileLineCount = -1;
+    private int tileWidth = -1;
+    private int tileStripHeight = -1;
+    private BufferedImage[] tiles = new BufferedImage[0];
+
+    private Amphibian2Overview(@NotNull Editor editor)
+    {
+        this.editor = editor;
+        setPreferredSize(new Dimension(JBUI.scale(10), 0));
+
+        // Jump to the line under the mouse
+        addMouseListener(new MouseAdapter()
+        {
+            @Override
+            public void mousePressed(MouseEvent e)
+            {
+                int lineCount = editor.getDocument().getLineCount();
+
+                if (lineCount == 0 || getHeight() == 0)
+                {
+                    return;
+                }
+
+                int line = Math.min(lineCount - 1, (int) ((long) e.getY() * lineCount / getHeight()));
+                editor.getCaretModel().moveToLogicalPosition(new LogicalPosition(line, 0));
+                editor.getScrollingModel().scrollToCaret(ScrollType.CENTER);
+            }
+        });
+    }
+
+    public static void setModel(@NotNull Editor editor, @NotNull Amphibian2BlockModel model, @NotNull TextRange changed)
+    {
+        Amphibian2Overview overview = editor.getUserData(OVERVIEW_KEY);
+
+        if (!Amphibian2Settings.getInstance().showOverview)
+        {
+            uninstall(editor, overview);
+            return;
+        }
+
+        if (overview == null)
+        {
+            if (!(editor.getComponent().getLayout() instanceof BorderLayout))
+            {
+                // Nowhere to put the strip
+                return;
+            }
+
+            // Put the strip right of the scroll bar of the editor
+            overview = new Amphibian2Overview(editor);
+            editor.putUserData(OVERVIEW_KEY, overview);
+            editor.getComponent().add(overview, BorderLayout.EAST);
+            editor.getComponent().revalidate();
+        }
+
+        if (overview.model != model)
+        {
+            overview.model = model;
+            overview.invalidateTiles(changed);
+        }
+    }
+
+    public static void schemeChange(@NotNull Editor editor)
+    {
+        Amphibian2Overview overview = editor.getUserData(OVERVIEW_KEY);
+
+        if (overview != null)
+        {
+            // The tiles hold colors of the old scheme
+            Arrays.fill(overview.tiles, null);
+            overview.repaint();
+        }
+    }
+
+    private static void uninstall(@NotNull Editor editor, Amphibian2Overview overview)
+    {
+        if (overview != null)
+        {
+            editor.putUserData(OVERVIEW_KEY, null);
+            editor.getComponent().remove(overview);
+            editor.getComponent().revalidate();
+        }
+    }
+
+    private void invalidateTiles(@NotNull TextRange changed)
+    {
+        Document document = editor.getDocument();
+        int lineCount = document.getLineCount();
+
+        if (lineCount != tileLineCount || getHeight() == 0)
+        {
+            // Every line moved up or down the strip
+            Arrays.fill(tiles, null);
+            repaint();
+            return;
+        }
+
+        // Only redraw the tiles holding the changed lines
+        int firstLine = document.getLineNumber(Math.min(changed.getStartOffset(), document.getTextLength()));
+        int lastLine = document.getLineNumber(Math.min(changed.getEndOffset(), document.getTextLength()));
+        int top = (int) ((long) firstLine * getHeight() / lineCount);
+        int bottom = (int) ((long) (lastLine + 1) * getHeight() / lineCount);
+
+        for (int tile = top / TILE_HEIGHT; tile <= bottom / TILE_HEIGHT && tile < tiles.length; tile++)
+        {
+            tiles[tile] = null;
+        }
+
+        repaint(0, top, getWidth(), bottom - top + 1);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        Amphibian2BlockModel model = this.model;
+        int lineCount = editor.getDocument().getLineCount();
+
+        if (model == null || lineCount == 0 || getWidth() == 0 || getHeight() == 0)
+        {
+            return;
+        }
+
+        if (lineCount != tileLineCount || getWidth() != tileWidth || getHeight() != tileStripHeight)
+        {
+            // Start over with empty tiles for the new size
+            tiles = new BufferedImage[(getHeight() + TILE_HEIGHT - 1) / TILE_HEIGHT];
+            tileLineCount = lineCount;
+            tileWidth = getWidth();
+            tileStripHeight = getHeight();
+        }
+
+        Rectangle clip = g.getClipBounds();
+        int first = clip != null ? clip.y / TILE_HEIGHT : 0;
+        int last = clip != null ? (clip.y + clip.height) / TILE_HEIGHT : tiles.length - 1;
+
+        // Draw only the tiles that are missing, then copy the visible ones
+        for (int tile = Math.max(0, first); tile <= last && tile < tiles.length; tile++)
+        {
+            if (tiles[tile] == null)
+            {
+                tiles[tile] = drawTile(model, tile);
+            }
+
+            UIUtil.drawImage(g, tiles[tile], 0, tile * TILE_HEIGHT, null);
+        }
+    }
+
+    @NotNull
+    private BufferedImage drawTile(@NotNull Amphibian2BlockModel model, int tile)
+    {
+        Document document = editor.getDocument();
+        int lineCount = tileLineCount;
+        int width = getWidth();
+        int height = getHeight();
+        int top = tile * TILE_HEIGHT;
+        int tileHeight = Math.min(TILE_HEIGHT, height - top);
+
+        BufferedImage image = UIUtil.createImage(this, width, tileHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+
+        try
+        {
+            // Find the text covered by the tile
+            int firstLine = Math.min(lineCount - 1, (int) ((long) top * lineCount / height));
+            int lastLine = Math.min(lineCount - 1, (int) ((long) (top + tileHeight) * lineCount / height));
+            int length = document.getTextLength();
+            int startOffset = document.getLineStartOffset(firstLine);
+            int endOffset = document.getLineEndOffset(lastLine);
+
+            Amphibian2Palette palette = Amphibian2ColorGenerator.getPalette();
+            Amphibian2IntervalIndex blocks = model.getBlocks();
+            int step = JBUI.scale(2);
+
+            // The model is made for the editor of the document that colors the most, so leave out what this one doesn't
+            Amphibian2ColoringLevel level = Amphibian2EditorPolicy.forEditor(editor).getLevel();
+
+            // A bar for every block from its first to its last line, indented by its depth
+            blocks.processIntersecting(startOffset, endOffset + 1, i ->
+            {
+                Amphibian2BlockKind kind = Amphibian2BlockModel.getKind(blocks.getKind(i));
+
+                if (level == null || !level.colors(kind))
+                {
+                    return;
+                }
+
+                int startLine = document.getLineNumber(Math.min(blocks.getStart(i), length));
+                int endLine = document.getLineNumber(Math.min(blocks.getEnd(i), length));
+                int y1 = (int) ((long) startLine * height / lineCount) - top;
+                int y2 = (int) ((long) (endLine + 1) * height / lineCount) - top;
+                int x = Math.min(width - step, blocks.getDepth(i) * step);
+
+                g.setColor(palette.getAttributes(kind).getBackgroundColor());
+                g.fillRect(x, y1, width - x, Math.max(1, y2 - y1));
+            });
+        }
+        finally
+        {
+            g.dispose();
+        }
+
+        return image;
+    }
+}
@@ -0,0 +1,87 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.markup.EffectType;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import org.jetbrains.annotations.NotNull;
+import java.awt.*;
+
+public final class Amphibian2Palette
+{
+    private static final Amphibian2BlockKind[] KINDS = Amphibian2BlockKind.values();
+
+    private final EditorColorsScheme scheme;
+    private final TextAttributes[] attributes;
+
+    private Amphibian2Palette(@NotNull EditorColorsScheme scheme, @NotNull TextAttributes[] attributes)
+    {
+        this.scheme = scheme;
+        this.attributes = attributes;
+    }
+
+    @NotNull
+    public static Amphibian2Palette create(@NotNull EditorColorsScheme scheme)
+    {
+        // Get the default background color of the scheme
+        Color bgColor = scheme.getDefaultBackground();
+        float[] bgArray = bgColor.getRGBComponents(null);
+
+        // Look up every block kind in the scheme once, up front
+        TextAttributes[] attributes = new TextAttributes[KINDS.length];
+
+        for (Amphibian2BlockKind kind : KINDS)
+        {
+            TextAttributes schemeAttributes = scheme.getAttributes(kind.getKey());
+            Color schemeColor = schemeAttributes != null ? schemeAttributes.getBackgroundColor() : null;
+
+            if (schemeColor != null && schemeColor.getAlpha() == 255)
+            {
+                attributes[kind.ordinal()] = schemeAttributes;
+            }
+            else
+            {
+                // Schemes without values for the key resolve it to the translucent default of the kind, which is
+                // blended against their background here since blocks are painted with an alpha of their own
+                Color color = schemeColor != null ? schemeColor : kind.getColor();
+                attributes[kind.ordinal()] = new TextAttributes(null, blend(color, bgArray),
+                        null, EffectType.BOXED, Font.PLAIN);
+            }
+        }
+
+        return new Amphibian2Palette(scheme, attributes);
+    }
+
+    private static Color blend(@NotNull Color color, float[] bgArray)
+    {
+        // Convert the color to an array of size 4, with each index representing an R, G, B, or A value
+        float[] colorArray = color.getRGBComponents(null);
+
+        // Alpha value to use is the alpha value of the color passed in
+        float alpha = colorArray[3];
+
+        // Create an new RGBA array for the result of blending the background with the passed in color together
+        float[] newColor = new float[4];
+
+        // Iterate over each RGB component of the colors
+        for (int i = 0 ; i < newColor.length; i++)
+        {
+            // Calculate the blend of the two colors including the alpha value
+            newColor[i] = colorArray[i] * alpha + bgArray[i] * (1 - alpha);
+        }
+
+        return new Color(newColor[0], newColor[1], newColor[2]);
+    }
+
+    @NotNull
+    public EditorColorsScheme getScheme()
+    {
+        return scheme;
+    }
+
+    @NotNull
+    public TextAttributes getAttributes(@NotNull Amphibian2BlockKind kind)
+    {
+        // Shared attributes, owned by the scheme; callers must never modify them
+        return attributes[kind.ordinal()];
+    }
+}
@@ -0,0 +1,69 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.util.xmlb.XmlSerializerUtil;
+import org.jetbrains.annotations.NotNull;
+
+@State(name = "Amphibian2Settings", storages = @Storage("amphibian2.xml"))
+public class Amphibian2Settings implements PersistentStateComponent<Amphibian2Settings>
+{
+    // Color through the per-element annotator instead of the file-level highlighting pass
+    public boolean useLegacyAnnotator = false;
+
+    // Paint nested block backgrounds with one renderer per editor instead of a highlighter per token; off by
+    // default, since painting whole lines changes how the plugin looks
+    public boolean paintBlocks = false;
+
+    // Show the block structure of the file in a strip next to the scroll bar
+    public boolean showOverview = true;
+
+    // How much of the file is colored in diff viewers, previews like Find in Path, and popups and consoles
+    public Amphibian2EditorPolicy diffEditors = Amphibian2EditorPolicy.HEADERS;
+    public Amphibian2EditorPolicy previewEditors = Amphibian2EditorPolicy.HEADERS;
+    public Amphibian2EditorPolicy otherEditors = Amphibian2EditorPolicy.OFF;
+
+    // Only color the visible part of the editor, plus a margin of lines above and below it
+    public boolean viewportOnly = false;
+    public int viewportMargin = 100;
+
+    // Files longer than this start with block headers only
+    public int largeFileLines = 20000;
+
+    // Limits of a single pass; crossing one steps the coloring down a level
+    public int largeFileElements = 1000000;
+    public int annotationBudget = 100000;
+
+    // Files longer than this have their class members colored in parallel when no model of them is cached
+    public int parallelFileLines = 10000;
+
+    // Open files whose block models are built in the background as a project opens, the selected ones first
+    public int warmUpFiles = 30;
+
+    // Also color every file with the legacy per-element walk and log where the block model differs from it
+    public boolean shadowMode = false;
+
+    // Time the highlighting passes and handlers, for the slowest files list and Java Flight Recorder
+    public boolean collectMetrics = false;
+
+    @NotNull
+    public static Amphibian2Settings getInstance()
+    {
+        return ServiceManager.getService(Amphibian2Settings.class);
+    }
+
+    @NotNull
+    @Override
+    public Amphibian2Settings getState()
+    {
+        return this;
+    }
+
+    @Override
+    public void loadState(@NotNull Amphibian2Settings state)
+    {
+        XmlSerializerUtil.copyBean(state, this);
+    }
+}
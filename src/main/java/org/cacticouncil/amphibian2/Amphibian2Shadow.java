@@ -0,0 +1,300 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class Amphibian2Shadow
+{
+    private static final Logger LOG = Logger.getInstance(Amphibian2Shadow.class);
+
+    // Number of mismatches kept for the action, newest first
+    private static final int LIMIT = 200;
+    private static final Deque<Mismatch> MISMATCHES = new ConcurrentLinkedDeque<>();
+
+    // Totals over every comparison of the session
+    private static final AtomicLong COMPARED = new AtomicLong();
+    private static final AtomicLong DIFFERED = new AtomicLong();
+    private static final AtomicLong LEGACY_NANOS = new AtomicLong();
+    private static final AtomicLong MODEL_NANOS = new AtomicLong();
+
+    private Amphibian2Shadow()
+    {
+    }
+
+    public static void compare(@NotNull PsiFile file, @NotNull Amphibian2BlockModel model, long modelNanos)
+    {
+        if (!(file instanceof PsiJavaFile) || model.getLevel() != Amphibian2ColoringLevel.FULL)
+        {
+            // The legacy handlers only color Java, and only ever fully
+            return;
+        }
+
+        // Color the file with the original handlers, one element at a time, and merge all the spans; the
+        // handlers of the provider are what is being checked, so they take no part in it
+        long start = System.nanoTime();
+        Amphibian2SpanCollector collector = new Amphibian2SpanCollector();
+
+        try
+        {
+            file.accept(new PsiRecursiveElementWalkingVisitor()
+            {
+                @Override
+                public void visitElement(PsiElement element)
+                {
+                    ProgressManager.checkCanceled();
+                    Amphibian2LegacyColorGenerator.getBlockColor(element, collector);
+                    super.visitElement(element);
+                }
+            });
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            // The original handlers fail on an empty if block, so there is nothing to compare this file with
+            LOG.debug("Legacy handlers failed on " + getPath(file), e);
+            return;
+        }
+
+        Amphibian2IntervalIndex.Builder builder = new Amphibian2IntervalIndex.Builder();
+        collector.flush((s, e, kind) -> builder.add(s, e, kind.ordinal(), 0));
+        Amphibian2IntervalIndex legacy = builder.build();
+        long legacyNanos = System.nanoTime() - start;
+
+        COMPARED.incrementAndGet();
+        LEGACY_NANOS.addAndGet(legacyNanos);
+        MODEL_NANOS.addAndGet(modelNanos);
+
+        Mismatch mismatch = diff(getPath(file), legacy, model.getSpans(), legacyNanos, modelNanos);
+
+        if (mismatch == null)
+        {
+            return;
+        }
+
+        DIFFERED.incrementAndGet();
+        LOG.warn(String.format("Block model of %s differs from the legacy handlers at offset %d: expected %s, got %s "
+                        + "(%d spans missing, %d extra; legacy %.2f ms, model %.2f ms)", mismatch.file, mismatch.offset,
+                mismatch.expected, mismatch.actual, mismatch.missing, mismatch.extra,
+                legacyNanos / 1_000_000.0, modelNanos / 1_000_000.0));
+
+        MISMATCHES.addFirst(mismatch);
+
+        while (MISMATCHES.size() > LIMIT)
+        {
+            MISMATCHES.pollLast();
+        }
+    }
+
+    @Nullable
+    private static Mismatch diff(@NotNull String file, @NotNull Amphibian2IntervalIndex legacy,
+                                 @NotNull Amphibian2IntervalIndex model, long legacyNanos, long modelNanos)
+    {
+        // Both are ordered by start, end and kind, so walk them side by side
+        int i = 0;
+        int j = 0;
+        int missing = 0;
+        int extra = 0;
+        int offset = -1;
+        String expected = "nothing";
+        String actual = "nothing";
+        Amphibian2BlockKind expectedKind = null;
+        Amphibian2BlockKind actualKind = null;
+
+        while (i < legacy.size() || j < model.size())
+        {
+            int order = i == legacy.size() ? 1 : j == model.size() ? -1 : compare(legacy, i, model, j);
+
+            if (order == 0)
+            {
+                i++;
+                j++;
+                continue;
+            }
+
+            if (offset < 0)
+            {
+                // Describe the first difference
+                offset = order < 0 ? legacy.getStart(i) : model.getStart(j);
+                expected = i < legacy.size() ? describe(legacy, i) : "nothing";
+                actual = j < model.size() ? describe(model, j) : "nothing";
+                expectedKind = i < legacy.size() ? Amphibian2BlockModel.getKind(legacy.getKind(i)) : null;
+                actualKind = j < model.size() ? Amphibian2BlockModel.getKind(model.getKind(j)) : null;
+            }
+
+            if (order < 0)
+            {
+                missing++;
+                i++;
+            }
+            else
+            {
+                extra++;
+                j++;
+            }
+        }
+
+        return offset < 0 ? null : new Mismatch(file, offset, expected, actual, expectedKind, actualKind, missing, extra,
+                legacyNanos, modelNanos);
+    }
+
+    private static int compare(@NotNull Amphibian2IntervalIndex a, int i, @NotNull Amphibian2IntervalIndex b, int j)
+    {
+        if (a.getStart(i) != b.getStart(j))
+        {
+            return Integer.compare(a.getStart(i), b.getStart(j));
+        }
+
+        if (a.getEnd(i) != b.getEnd(j))
+        {
+            return Integer.compare(a.getEnd(i), b.getEnd(j));
+        }
+
+        return Integer.compare(a.getKind(i), b.getKind(j));
+    }
+
+    @NotNull
+    private static String describe(@NotNull Amphibian2IntervalIndex spans, int i)
+    {
+        // The kind decides the color, so a span with the right range but the wrong kind is a wrong color
+        Amphibian2BlockKind kind = Amphibian2BlockModel.getKind(spans.getKind(i));
+        Color color = Amphibian2ColorGenerator.getPalette().getAttributes(kind).getBackgroundColor();
+        String hex = color != null ? String.format("#%06X", color.getRGB() & 0xFFFFFF) : "no color";
+        return kind + " (" + hex + ") " + spans.getStart(i) + "-" + spans.getEnd(i);
+    }
+
+    @NotNull
+    public static List<Mismatch> getMismatches()
+    {
+        return new ArrayList<>(MISMATCHES);
+    }
+
+    public static long getCompared()
+    {
+        return COMPARED.get();
+    }
+
+    public static long getDiffered()
+    {
+        return DIFFERED.get();
+    }
+
+    public static long getLegacyNanos()
+    {
+        return LEGACY_NANOS.get();
+    }
+
+    public static long getModelNanos()
+    {
+        return MODEL_NANOS.get();
+    }
+
+    @NotNull
+    private static String getPath(@NotNull PsiFile file)
+    {
+        VirtualFile virtualFile = file.getVirtualFile();
+        return virtualFile != null ? virtualFile.getPresentableUrl() : file.getName();
+    }
+
+    public static final class Mismatch
+    {
+        private final String file;
+        private final int offset;
+        private final String expected;
+        private final String actual;
+        private final Amphibian2BlockKind expectedKind;
+        private final Amphibian2BlockKind actualKind;
+        private final int missing;
+        private final int extra;
+        private final long legacyNanos;
+        private final long modelNanos;
+
+        private Mismatch(@NotNull String file, int offset, @NotNull String expected, @NotNull String actual,
+                         @Nullable Amphibian2BlockKind expectedKind, @Nullable Amphibian2BlockKind actualKind,
+                         int missing, int extra, long legacyNanos, long modelNanos)
+        {
+            this.file = file;
+            this.offset = offset;
+            this.expected = expected;
+            this.actual = actual;
+            this.expectedKind = expectedKind;
+            this.actualKind = actualKind;
+            this.missing = missing;
+            this.extra = extra;
+            this.legacyNanos = legacyNanos;
+            this.modelNanos = modelNanos;
+        }
+
+        @NotNull
+        public String getFile()
+        {
+            return file;
+        }
+
+        public int getOffset()
+        {
+            return offset;
+        }
+
+        @NotNull
+        public String getExpected()
+        {
+            return expected;
+        }
+
+        @NotNull
+        public String getActual()
+        {
+            return actual;
+        }
+
+        @Nullable
+        public Amphibian2BlockKind getExpectedKind()
+        {
+            return expectedKind;
+        }
+
+        @Nullable
+        public Amphibian2BlockKind getActualKind()
+        {
+            return actualKind;
+        }
+
+        public boolean isKindMismatch()
+        {
+            // The same range colored as another kind, which only shows as a different color
+            return expectedKind != null && actualKind != null && expectedKind != actualKind;
+        }
+
+        public int getMissing()
+        {
+            return missing;
+        }
+
+        public int getExtra()
+        {
+            return extra;
+        }
+
+        public long getLegacyNanos()
+        {
+            return legacyNanos;
+        }
+
+        public long getModelNanos()
+        {
+            return modelNanos;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.ui.table.JBTable;
+import com.intellij.util.ui.JBUI;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.util.List;
+
+public class Amphibian2ShowMetricsAction extends AnAction
+{
+    private static final int LIMIT = 50;
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e)
+    {
+        new MetricsDialog(e.getProject()).show();
+    }
+
+    private static final class MetricsDialog extends DialogWrapper
+    {
+        private MetricsDialog(@Nullable Project project)
+        {
+            super(project);
+            setTitle("Amphibian 2: Slowest Files in This Session");
+            setOKButtonText("Close");
+            init();
+        }
+
+        @Nullable
+        @Override
+        protected JComponent createCenterPanel()
+        {
+            DefaultTableModel model = new DefaultTableModel(new Object[]{
+                    "File", "Time (ms)", "Elements", "Annotations", "Scheme lookups", "Slowest handler"}, 0)
+            {
+                @Override
+                public boolean isCellEditable(int row, int column)
+                {
+                    return false;
+                }
+            };
+
+            // One row per file, slowest first
+            List<Amphibian2Metrics.Record> records = Amphibian2Metrics.getSlowestFiles(LIMIT);
+
+            for (Amphibian2Metrics.Record record : records)
+            {
+                Amphibian2Metrics.Handler handler = record.getSlowestHandler();
+                String slowest = handler == null ? "" : String.format("%s (%.2f ms)", handler,
+                        record.getHandlerNanos(handler) / 1_000_000.0);
+
+                model.addRow(new Object[]{
+                        record.getFile(),
+                        String.format("%.2f", record.getNanos() / 1_000_000.0),
+                        record.getElements(),
+                        record.getAnnotations(),
+                        record.getSchemeLookups(),
+                        slowest});
+            }
+
+            JBTable table = new JBTable(model);
+            table.getEmptyText().setText("No files colored yet, or metrics are turned off in the settings");
+
+            // Most lookups happen while painting blocks, outside of any pass, so the session total is shown as well
+            JBLabel summary = new JBLabel(String.format("%d scheme lookups in this session",
+                    Amphibian2Metrics.getSchemeLookups()));
+            summary.setBorder(JBUI.Borders.emptyBottom(8));
+
+            JPanel panel = new JPanel(new BorderLayout());
+            panel.add(summary, BorderLayout.NORTH);
+            panel.add(ScrollPaneFactory.createScrollPane(table), BorderLayout.CENTER);
+            panel.setPreferredSize(new Dimension(900, 400));
+            return panel;
+        }
+
+        @NotNull
+        @Override
+        protected Action[] createActions()
+        {
+            return new Action[]{getOKAction()};
+        }
+    }
+}
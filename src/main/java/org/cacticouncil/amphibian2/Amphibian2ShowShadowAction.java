@@ -0,0 +1,87 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.ui.table.JBTable;
+import com.intellij.util.ui.JBUI;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+
+public class Amphibian2ShowShadowAction extends AnAction
+{
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e)
+    {
+        new ShadowDialog(e.getProject()).show();
+    }
+
+    private static final class ShadowDialog extends DialogWrapper
+    {
+        private ShadowDialog(@Nullable Project project)
+        {
+            super(project);
+            setTitle("Amphibian 2: Block Model Mismatches in This Session");
+            setOKButtonText("Close");
+            init();
+        }
+
+        @Nullable
+        @Override
+        protected JComponent createCenterPanel()
+        {
+            DefaultTableModel model = new DefaultTableModel(new Object[]{
+                    "File", "Offset", "Expected", "Got", "Wrong Color", "Missing", "Extra", "Legacy (ms)", "Model (ms)"}, 0)
+            {
+                @Override
+                public boolean isCellEditable(int row, int column)
+                {
+                    return false;
+                }
+            };
+
+            // One row per mismatch, newest first
+            for (Amphibian2Shadow.Mismatch mismatch : Amphibian2Shadow.getMismatches())
+            {
+                model.addRow(new Object[]{
+                        mismatch.getFile(),
+                        mismatch.getOffset(),
+                        mismatch.getExpected(),
+                        mismatch.getActual(),
+                        mismatch.isKindMismatch() ? "Yes" : "No",
+                        mismatch.getMissing(),
+                        mismatch.getExtra(),
+                        String.format("%.2f", mismatch.getLegacyNanos() / 1_000_000.0),
+                        String.format("%.2f", mismatch.getModelNanos() / 1_000_000.0)});
+            }
+
+            JBTable table = new JBTable(model);
+            table.getEmptyText().setText("No mismatches yet, or shadow mode is turned off in the settings");
+
+            // The totals of every comparison, matching or not
+            JBLabel summary = new JBLabel(String.format("%d files compared, %d differed; legacy %.2f ms, model %.2f ms in total",
+                    Amphibian2Shadow.getCompared(), Amphibian2Shadow.getDiffered(),
+                    Amphibian2Shadow.getLegacyNanos() / 1_000_000.0, Amphibian2Shadow.getModelNanos() / 1_000_000.0));
+            summary.setBorder(JBUI.Borders.emptyBottom(8));
+
+            JPanel panel = new JPanel(new BorderLayout());
+            panel.add(summary, BorderLayout.NORTH);
+            panel.add(ScrollPaneFactory.createScrollPane(table), BorderLayout.CENTER);
+            panel.setPreferredSize(new Dimension(1000, 400));
+            return panel;
+        }
+
+        @NotNull
+        @Override
+        protected Action[] createActions()
+        {
+            return new Action[]{getOKAction()};
+        }
+    }
+}
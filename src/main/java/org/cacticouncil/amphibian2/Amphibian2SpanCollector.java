@@ -0,0 +1,137 @@
+package org.cacticouncil.amphibian2;
+
+import org.jetbrains.annotations.NotNull;
+import java.util.Arrays;
+
+public final class Amphibian2SpanCollector implements Amphibian2SpanSink
+{
+    private static final Amphibian2BlockKind[] KINDS = Amphibian2BlockKind.values();
+
+    // Pending spans of each kind, each packed as its start offset above its end offset
+    private final long[][] spans = new long[KINDS.length][];
+    private final int[] counts = new int[KINDS.length];
+
+    // Position of the next span of each kind while flushing
+    private final int[] cursors = new int[KINDS.length];
+
+    // Number of merged spans handed out by the last flush
+    private int lastFlushCount;
+
+    public Amphibian2SpanCollector()
+    {
+        Arrays.fill(spans, new long[0]);
+    }
+
+    @Override
+    public void addSpan(int startOffset, int endOffset, @NotNull Amphibian2BlockKind kind)
+    {
+        if (startOffset >= endOffset)
+        {
+            // Empty spans color nothing
+            return;
+        }
+
+        int k = kind.ordinal();
+
+        if (counts[k] == spans[k].length)
+        {
+            // Grow the array of this kind
+            spans[k] = Arrays.copyOf(spans[k], Math.max(16, counts[k] * 2));
+        }
+
+        spans[k][counts[k]++] = ((long) startOffset << 32) | endOffset;
+    }
+
+    public void clear()
+    {
+        // Drop the pending spans, keeping the arrays for the next use
+        Arrays.fill(counts, 0);
+    }
+
+    public boolean isEmpty()
+    {
+        for (int count : counts)
+        {
+            if (count > 0)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public void flush(@NotNull Amphibian2SpanSink sink)
+    {
+        // Sort each kind by start offset and merge the adjacent or overlapping spans in place
+        for (int k = 0; k < KINDS.length; k++)
+        {
+            counts[k] = merge(spans[k], counts[k]);
+        }
+
+        // Hand out the merged spans of all kinds ordered by start offset
+        Arrays.fill(cursors, 0);
+        lastFlushCount = 0;
+
+        while (true)
+        {
+            int best = -1;
+
+            for (int k = 0; k < KINDS.length; k++)
+            {
+                if (cursors[k] < counts[k] && (best < 0 || spans[k][cursors[k]] < spans[best][cursors[best]]))
+                {
+                    best = k;
+                }
+            }
+
+            if (best < 0)
+            {
+                break;
+            }
+
+            long span = spans[best][cursors[best]++];
+            sink.addSpan((int) (span >>> 32), (int) span, KINDS[best]);
+            lastFlushCount++;
+        }
+
+        // Start empty again, keeping the arrays for the next use
+        Arrays.fill(counts, 0);
+    }
+
+    public int getLastFlushCount()
+    {
+        return lastFlushCount;
+    }
+
+    private static int merge(long[] spans, int count)
+    {
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        Arrays.sort(spans, 0, count);
+
+        int merged = 0;
+
+        for (int i = 1; i < count; i++)
+        {
+            int end = (int) spans[merged];
+            int nextStart = (int) (spans[i] >>> 32);
+            int nextEnd = (int) spans[i];
+
+            if (nextStart <= end)
+            {
+                // Touching or overlapping the previous span, so widen it
+                spans[merged] = (spans[merged] & 0xFFFFFFFF00000000L) | Math.max(end, nextEnd);
+            }
+            else
+            {
+                spans[++merged] = spans[i];
+            }
+        }
+
+        return merged + 1;
+    }
+}
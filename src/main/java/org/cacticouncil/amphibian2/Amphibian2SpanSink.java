@@ -0,0 +1,16 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.psi.PsiElement;
+import org.jetbrains.annotations.NotNull;
+
+@FunctionalInterface
+public interface Amphibian2SpanSink
+{
+    // Receives one colored span, given by its start and end offsets in the file
+    void addSpan(int startOffset, int endOffset, @NotNull Amphibian2BlockKind kind);
+
+    // Called before the spans of each element of a file walk, for sinks that group spans by element
+    default void startElement(@NotNull PsiElement element)
+    {
+    }
+}
@@ -0,0 +1,135 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.codeInsight.daemon.impl.DaemonCodeAnalyzerEx;
+import com.intellij.codeInsight.daemon.impl.DaemonCodeAnalyzerImpl;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.event.VisibleAreaListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.awt.*;
+
+public final class Amphibian2Viewport
+{
+    // The part of the document already colored in an editor, valid for one modification stamp
+    private static final Key<Coverage> COVERAGE_KEY = Key.create("amphibian2.viewport.coverage");
+
+    // Marks editors that already listen for scrolling
+    private static final Key<Boolean> LISTENER_KEY = Key.create("amphibian2.viewport.listener");
+
+    private Amphibian2Viewport()
+    {
+    }
+
+    @NotNull
+    public static TextRange getWindow(@NotNull Editor editor, int marginLines)
+    {
+        Document document = editor.getDocument();
+
+        if (document.getLineCount() == 0)
+        {
+            // Nothing to color in an empty document
+            return TextRange.EMPTY_RANGE;
+        }
+
+        // Get the first and last visible lines of the editor
+        Rectangle area = editor.getScrollingModel().getVisibleArea();
+        int firstLine = editor.xyToLogicalPosition(new Point(area.x, area.y)).line;
+        int lastLine = editor.xyToLogicalPosition(new Point(area.x, area.y + area.height)).line;
+
+        // Widen them by the margin, staying inside the document
+        int startLine = Math.max(0, firstLine - marginLines);
+        int endLine = Math.min(document.getLineCount() - 1, lastLine + marginLines);
+
+        return new TextRange(document.getLineStartOffset(startLine), document.getLineEndOffset(endLine));
+    }
+
+    @Nullable
+    public static TextRange getUncoveredWindow(@NotNull Editor editor, int marginLines)
+    {
+        TextRange window = getWindow(editor, marginLines);
+        Coverage coverage = editor.getUserData(COVERAGE_KEY);
+
+        if (coverage != null && coverage.stamp == editor.getDocument().getModificationStamp()
+                && coverage.range.contains(window))
+        {
+            // The visible area is already colored for this version of the document
+            return null;
+        }
+
+        return window;
+    }
+
+    public static void markCovered(@NotNull Editor editor, @NotNull TextRange range)
+    {
+        long stamp = editor.getDocument().getModificationStamp();
+        Coverage coverage = editor.getUserData(COVERAGE_KEY);
+
+        if (coverage != null && coverage.stamp == stamp && coverage.range.intersects(range))
+        {
+            // Extend the colored area when the new range touches it
+            range = coverage.range.union(range);
+        }
+
+        editor.putUserData(COVERAGE_KEY, new Coverage(stamp, range));
+    }
+
+    public static void installListener(@NotNull Editor editor, int passId)
+    {
+        if (editor.getUserData(LISTENER_KEY) != null)
+        {
+            // Only listen once per editor
+            return;
+        }
+
+        editor.putUserData(LISTENER_KEY, Boolean.TRUE);
+
+        // The listener lives as long as the scrolling model of the editor
+        VisibleAreaListener listener = event -> onScroll(event.getEditor(), passId);
+        editor.getScrollingModel().addVisibleAreaListener(listener);
+    }
+
+    private static void onScroll(@NotNull Editor editor, int passId)
+    {
+        Amphibian2Settings settings = Amphibian2Settings.getInstance();
+        Project project = editor.getProject();
+
+        if (!settings.viewportOnly || project == null || project.isDisposed())
+        {
+            return;
+        }
+
+        if (getUncoveredWindow(editor, settings.viewportMargin) == null)
+        {
+            // Still inside the colored area
+            return;
+        }
+
+        // Mark only this pass of this document dirty; restart() would mark every open file dirty, and restart(file)
+        // every pass and inspection of this one
+        DaemonCodeAnalyzerEx.getInstanceEx(project).getFileStatusMap().markFileScopeDirty(editor.getDocument(), passId);
+        DaemonCodeAnalyzer daemon = DaemonCodeAnalyzer.getInstance(project);
+
+        if (daemon instanceof DaemonCodeAnalyzerImpl)
+        {
+            // Reschedule the daemon without dirtying anything else, so every pass still up to date is skipped
+            ((DaemonCodeAnalyzerImpl) daemon).stopProcess(true, "Amphibian 2 viewport scrolled");
+        }
+    }
+
+    private static final class Coverage
+    {
+        private final long stamp;
+        private final TextRange range;
+
+        private Coverage(long stamp, @NotNull TextRange range)
+        {
+            this.stamp = stamp;
+            this.range = range;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+public class Amphibian2WarmUpActivity implements StartupActivity, DumbAware
+{
+    // Shared by all projects, and bounded so warming up never takes over the pooled threads
+    private static final ExecutorService EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "Amphibian2 Warm-up", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    @Override
+    public void runActivity(@NotNull Project project)
+    {
+        Amphibian2Settings settings = Amphibian2Settings.getInstance();
+
+        if (settings.useLegacyAnnotator || settings.warmUpFiles <= 0)
+        {
+            return;
+        }
+
+        // The files shown first, then the other open tabs, with the limit applying to all of them together so a
+        // project restored with many tabs doesn't build them all at startup
+        FileEditorManager manager = FileEditorManager.getInstance(project);
+        Set<VirtualFile> files = new LinkedHashSet<>(Arrays.asList(manager.getSelectedFiles()));
+        files.addAll(Arrays.asList(manager.getOpenFiles()));
+
+        int remaining = settings.warmUpFiles;
+
+        for (VirtualFile file : files)
+        {
+            if (remaining-- <= 0)
+            {
+                break;
+            }
+
+            // Build each model in its own read action, which yields to writes and stops when the project closes
+            ReadAction.nonBlocking(() -> warmUp(project, file))
+                    .expireWith(project)
+                    .submit(EXECUTOR);
+        }
+    }
+
+    private static void warmUp(@NotNull Project project, @NotNull VirtualFile file)
+    {
+        if (!file.isValid())
+        {
+            return;
+        }
+
+        PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+
+        if (psiFile == null || Amphibian2BlockProvider.forLanguage(psiFile.getLanguage()) == null)
+        {
+            // Nothing to color in languages without a block provider
+            return;
+        }
+
+        // The highlighting pass of the file finds the model cached and only has to apply it
+        Amphibian2BlockModel.getInstance(psiFile);
+    }
+}
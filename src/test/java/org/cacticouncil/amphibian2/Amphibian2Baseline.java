@@ -0,0 +1,131 @@
+package org.cacticouncil.amphibian2;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeSet;
+
+final class Amphibian2Baseline
+{
+    private final File file;
+    private final String header;
+    private final boolean update;
+    private final Properties values = new Properties();
+
+    // Whether a measurement was recorded, so the file has to be written back
+    private boolean recorded;
+
+    Amphibian2Baseline(@NotNull String name, @NotNull String header) throws IOException
+    {
+        // The files live in benchmark/, and are only recorded again when asked with -PupdateBaseline
+        this.file = new File(System.getProperty("amphibian2.benchmark.dir", "benchmark"), name);
+        this.header = header;
+        this.update = Boolean.getBoolean("amphibian2.updateBaseline");
+
+        if (!update && file.isFile())
+        {
+            try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))
+            {
+                values.load(in);
+            }
+        }
+    }
+
+    boolean checkAtMost(@NotNull String key, double measured, double tolerance)
+    {
+        // Fail when the measurement is over the recorded one by more than the tolerance
+        String recordedValue = record(key, String.format(Locale.ROOT, "%.2f", measured));
+
+        if (recordedValue == null)
+        {
+            return update;
+        }
+
+        double limit = Double.parseDouble(recordedValue) * (1 + tolerance);
+
+        if (measured > limit)
+        {
+            System.out.printf("  REGRESSION %s: %.2f, baseline %s (+%.0f%%)%n", key, measured, recordedValue,
+                    tolerance * 100);
+            return false;
+        }
+
+        return true;
+    }
+
+    boolean checkEquals(@NotNull String key, long measured)
+    {
+        // Fail on any difference, for counts the fixed sources always produce the same way
+        String recordedValue = record(key, Long.toString(measured));
+
+        if (recordedValue == null)
+        {
+            return update;
+        }
+
+        if (measured != Long.parseLong(recordedValue))
+        {
+            System.out.printf("  REGRESSION %s: %d, baseline %s%n", key, measured, recordedValue);
+            return false;
+        }
+
+        return true;
+    }
+
+    private String record(@NotNull String key, @NotNull String measured)
+    {
+        // Returns the recorded value, or null after recording the measurement when there was none
+        String value = values.getProperty(key);
+
+        if (value != null)
+        {
+            return value;
+        }
+
+        if (!update)
+        {
+            // Nothing to compare with is a failure, but the measurement is kept so it can be reviewed and committed
+            System.out.printf("  NO BASELINE %s: recorded %s%n", key, measured);
+        }
+
+        values.setProperty(key, measured);
+        recorded = true;
+        return null;
+    }
+
+    void save() throws IOException
+    {
+        if (!recorded)
+        {
+            return;
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+        {
+            throw new IOException("Cannot create " + parent);
+        }
+
+        // Keep the header and a stable key order, so a new recording diffs cleanly against the last one
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)))
+        {
+            out.print(header);
+
+            for (String key : new TreeSet<>(values.stringPropertyNames()))
+            {
+                out.println(key + "=" + values.getProperty(key));
+            }
+        }
+
+        System.out.println("Measurements recorded in " + file + "; commit them as the new baseline");
+    }
+
+    @NotNull
+    File getFile()
+    {
+        return file;
+    }
+}
@@ -0,0 +1,125 @@
+package org.cacticouncil.amphibian2;
+
+import org.jetbrains.annotations.NotNull;
+import java.util.Random;
+
+public final class Amphibian2BenchmarkSourceGenerator
+{
+    private final int lines;
+    private final int maxDepth;
+    private final double loopDensity;
+    private final double tryDensity;
+    private final double ifDensity;
+
+    private StringBuilder builder;
+    private int lineCount;
+    private Random random;
+
+    public Amphibian2BenchmarkSourceGenerator(int lines, int maxDepth, double loopDensity, double tryDensity, double ifDensity)
+    {
+        this.lines = lines;
+        this.maxDepth = maxDepth;
+        this.loopDensity = loopDensity;
+        this.tryDensity = tryDensity;
+        this.ifDensity = ifDensity;
+    }
+
+    @NotNull
+    public String generate(@NotNull String className)
+    {
+        // Use a fixed seed so every run produces the same source
+        builder = new StringBuilder(lines * 32);
+        lineCount = 0;
+        random = new Random(lines * 31L + maxDepth);
+
+        line(0, "package benchmark;");
+        line(0, "");
+        line(0, "import java.util.ArrayList;");
+        line(0, "import java.util.List;");
+        line(0, "");
+        line(0, "public class " + className);
+        line(0, "{");
+        line(1, "private int counter;");
+        line(1, "private final List<String> names = new ArrayList<>();");
+
+        // Add methods until the file is long enough, leaving room for the closing brace
+        for (int method = 0; lineCount < lines - 1; method++)
+        {
+            line(0, "");
+            line(1, "public int method" + method + "(int value, String name)");
+            line(1, "{");
+            body(2, 0, 12);
+            line(2, "return value;");
+            line(1, "}");
+        }
+
+        line(0, "}");
+
+        return builder.toString();
+    }
+
+    private void body(int indent, int depth, int statements)
+    {
+        for (int i = 0; i < statements && lineCount < lines - 4; i++)
+        {
+            double roll = random.nextDouble();
+
+            if (depth < maxDepth && roll < ifDensity)
+            {
+                line(indent, "if (value > " + i + " && name != null)");
+                line(indent, "{");
+                body(indent + 1, depth + 1, statements / 2 + 1);
+                line(indent, "}");
+                line(indent, "else");
+                line(indent, "{");
+                line(indent + 1, "counter--;");
+                line(indent, "}");
+            }
+            else if (depth < maxDepth && roll < ifDensity + loopDensity)
+            {
+                if (random.nextBoolean())
+                {
+                    line(indent, "for (int i" + depth + " = 0; i" + depth + " < value; i" + depth + "++)");
+                }
+                else
+                {
+                    line(indent, "while (counter < value)");
+                }
+
+                line(indent, "{");
+                body(indent + 1, depth + 1, statements / 2 + 1);
+                line(indent, "}");
+            }
+            else if (depth < maxDepth && roll < ifDensity + loopDensity + tryDensity)
+            {
+                line(indent, "try");
+                line(indent, "{");
+                body(indent + 1, depth + 1, statements / 2 + 1);
+                line(indent, "}");
+                line(indent, "catch (IllegalStateException e)");
+                line(indent, "{");
+                line(indent + 1, "names.add(e.getMessage());");
+                line(indent, "}");
+            }
+            else if (roll < 0.9)
+            {
+                line(indent, "counter += value * " + i + ";");
+            }
+            else
+            {
+                line(indent, "String text" + i + " = name + counter;");
+            }
+        }
+    }
+
+    private void line(int indent, @NotNull String text)
+    {
+        for (int i = 0; i < indent; i++)
+        {
+            builder.append("    ");
+        }
+
+        builder.append(text).append('\n');
+        lineCount++;
+    }
+}
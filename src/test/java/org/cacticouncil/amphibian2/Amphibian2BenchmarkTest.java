@@ -0,0 +1,219 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+import org.jetbrains.annotations.NotNull;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+public class Amphibian2BenchmarkTest extends LightJavaCodeInsightFixtureTestCase
+{
+    // Runs of each scenario, the first ones only warm up the JIT
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+
+    // How much slower or hungrier than the recorded baseline a scenario may get before it counts as a regression;
+    // time is measured against a bare walk of the same tree, so the baseline holds on any machine. A splice only
+    // walks one method, so its time is the noisiest
+    private static final double RATIO_TOLERANCE = 0.25;
+    private static final double SPLICE_TOLERANCE = 0.50;
+    private static final double ALLOCATION_TOLERANCE = 0.10;
+
+    // A statement typed into a method in the middle of the file, to time the splice after an edit
+    private static final String EDIT = "value++;\n        ";
+
+    private static final String HEADER = "# Amphibian 2 block coloring baseline\n"
+            + "# Checked by ./gradlew performanceTest, which check depends on; record it again with -PupdateBaseline.\n"
+            + "#\n"
+            + "# <scenario>.ratio         measured time of the block model of a new file, as a multiple of a bare walk\n"
+            + "#                          of the same tree (+25% tolerance)\n"
+            + "# <scenario>.spliceRatio   measured time of the block model after an edit inside one method, as a\n"
+            + "#                          multiple of the same walk (+50% tolerance)\n"
+            + "# <scenario>.bytesPerLine  measured bytes allocated per line by the block model of a new file (+10%)\n"
+            + "# <scenario>.spans         exact merged span count\n";
+
+    // Generated files from 1k to 100k lines, with different nesting depths and loop, try and if densities
+    private static final Scenario[] SCENARIOS = {
+            new Scenario("flat-1k", 1_000, 1, 0.05, 0.02, 0.05),
+            new Scenario("mixed-1k", 1_000, 4, 0.15, 0.05, 0.20),
+            new Scenario("mixed-10k", 10_000, 4, 0.15, 0.05, 0.20),
+            new Scenario("deep-10k", 10_000, 10, 0.20, 0.05, 0.30),
+            new Scenario("loops-10k", 10_000, 6, 0.45, 0.00, 0.05),
+            new Scenario("try-10k", 10_000, 6, 0.05, 0.40, 0.05),
+            new Scenario("mixed-50k", 50_000, 4, 0.15, 0.05, 0.20),
+            new Scenario("mixed-100k", 100_000, 4, 0.15, 0.05, 0.20),
+    };
+
+    public void testNoRegressionAgainstBaseline() throws IOException
+    {
+        Amphibian2Baseline baseline = new Amphibian2Baseline("baseline.properties", HEADER);
+        int regressions = 0;
+
+        System.out.printf("%-12s %8s %10s %10s %10s %10s %14s%n", "scenario", "lines", "ms/file", "x walk",
+                "x splice", "spans", "bytes/line");
+
+        for (Scenario scenario : SCENARIOS)
+        {
+            Result result = measure(scenario);
+            long bytesPerLine = result.bytes / scenario.lines;
+
+            System.out.printf("%-12s %8d %10.2f %10.2f %10.2f %10d %14d%n", scenario.name, scenario.lines,
+                    result.millis, result.ratio, result.spliceRatio, result.spans, bytesPerLine);
+
+            // Check every value, so one run records all the missing ones
+            boolean[] within = {
+                    baseline.checkAtMost(scenario.name + ".ratio", result.ratio, RATIO_TOLERANCE),
+                    baseline.checkAtMost(scenario.name + ".spliceRatio", result.spliceRatio, SPLICE_TOLERANCE),
+                    baseline.checkAtMost(scenario.name + ".bytesPerLine", bytesPerLine, ALLOCATION_TOLERANCE),
+                    baseline.checkEquals(scenario.name + ".spans", result.spans)
+            };
+
+            for (boolean value : within)
+            {
+                regressions += value ? 0 : 1;
+            }
+        }
+
+        baseline.save();
+        assertEquals("Block coloring regressed against " + baseline.getFile(), 0, regressions);
+    }
+
+    @NotNull
+    private Result measure(@NotNull Scenario scenario)
+    {
+        String text = new Amphibian2BenchmarkSourceGenerator(scenario.lines, scenario.maxDepth,
+                scenario.loopDensity, scenario.tryDensity, scenario.ifDensity).generate("Benchmark");
+
+        // The members of huge files are colored on pooled threads, so allocations are counted on all of them
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        double[] millis = new double[MEASURED_RUNS];
+        double[] walkMillis = new double[MEASURED_RUNS];
+        double[] spliceMillis = new double[MEASURED_RUNS];
+        long bytes = Long.MAX_VALUE;
+        long spans = 0;
+
+        for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++)
+        {
+            // Use a fresh, fully parsed file with a document every run so no cached model of the last run is reused
+            PsiFile file = PsiFileFactory.getInstance(getProject()).createFileFromText("Benchmark.java",
+                    JavaFileType.INSTANCE, text, System.currentTimeMillis(), true);
+            file.accept(new PsiRecursiveElementWalkingVisitor() {});
+
+            // Time a bare walk of the loaded tree, the reference every coloring time is measured against
+            long walkStart = System.nanoTime();
+            file.accept(new PsiRecursiveElementWalkingVisitor() {});
+            long walkElapsed = System.nanoTime() - walkStart;
+
+            long allocatedBefore = getAllocatedBytes(threads);
+            long start = System.nanoTime();
+
+            // Build the model of the whole file the way the highlighting pass does when nothing is cached
+            Amphibian2BlockModel model = Amphibian2BlockModel.getInstance(file);
+
+            long elapsed = System.nanoTime() - start;
+            long allocated = Math.max(0, getAllocatedBytes(threads) - allocatedBefore);
+
+            // Type a statement into a method in the middle of the file, then time the pass rebuilding only it
+            long spliceElapsed = splice(file, text);
+
+            if (run >= WARMUP_RUNS)
+            {
+                millis[run - WARMUP_RUNS] = elapsed / 1_000_000.0;
+                walkMillis[run - WARMUP_RUNS] = walkElapsed / 1_000_000.0;
+                spliceMillis[run - WARMUP_RUNS] = spliceElapsed / 1_000_000.0;
+                bytes = Math.min(bytes, allocated);
+                spans = model.getSpans().size();
+            }
+        }
+
+        // Report the median times and the smallest allocation, which are the least noisy
+        Arrays.sort(millis);
+        Arrays.sort(walkMillis);
+        Arrays.sort(spliceMillis);
+        double median = millis[MEASURED_RUNS / 2];
+        double walk = Math.max(walkMillis[MEASURED_RUNS / 2], 0.001);
+        return new Result(median, median / walk, spliceMillis[MEASURED_RUNS / 2] / walk, spans, bytes);
+    }
+
+    private long splice(@NotNull PsiFile file, @NotNull String text)
+    {
+        Document document = PsiDocumentManager.getInstance(getProject()).getDocument(file);
+        assertNotNull("No document for the generated file", document);
+
+        int offset = text.indexOf("return value;", text.length() / 2);
+        assertTrue("No method in the second half of the generated file", offset >= 0);
+
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> document.insertString(offset, EDIT));
+        PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+
+        // The daemon hands the pass the edited range, which it widens to the method and splices into the last model
+        long start = System.nanoTime();
+        PsiElement changed = Amphibian2BlockModel.findChangedElement(file, TextRange.from(offset, EDIT.length()));
+        Amphibian2BlockModel.getInstance(file, changed);
+        long elapsed = System.nanoTime() - start;
+
+        assertNotNull("The edit was not spliced into the last model", changed);
+        return elapsed;
+    }
+
+    private static long getAllocatedBytes(@NotNull com.sun.management.ThreadMXBean threads)
+    {
+        long total = 0;
+
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+        {
+            // Threads that ended or don't report are -1
+            total += Math.max(0, allocated);
+        }
+
+        return total;
+    }
+
+    private static final class Scenario
+    {
+        private final String name;
+        private final int lines;
+        private final int maxDepth;
+        private final double loopDensity;
+        private final double tryDensity;
+        private final double ifDensity;
+
+        private Scenario(String name, int lines, int maxDepth, double loopDensity, double tryDensity, double ifDensity)
+        {
+            this.name = name;
+            this.lines = lines;
+            this.maxDepth = maxDepth;
+            this.loopDensity = loopDensity;
+            this.tryDensity = tryDensity;
+            this.ifDensity = ifDensity;
+        }
+    }
+
+    private static final class Result
+    {
+        private final double millis;
+        private final double ratio;
+        private final double spliceRatio;
+        private final long spans;
+        private final long bytes;
+
+        private Result(double millis, double ratio, double spliceRatio, long spans, long bytes)
+        {
+            this.millis = millis;
+            this.ratio = ratio;
+            this.spliceRatio = spliceRatio;
+            this.spans = spans;
+            this.bytes = bytes;
+        }
+    }
+}
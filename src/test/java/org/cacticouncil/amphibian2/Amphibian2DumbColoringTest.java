@@ -0,0 +1,104 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.openapi.project.DumbServiceImpl;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.impl.PsiManagerImpl;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Amphibian2DumbColoringTest extends LightJavaCodeInsightFixtureTestCase
+{
+    private static final String SUB = "public class Sub extends Base\n"
+            + "{\n"
+            + "    private int own;\n"
+            + "\n"
+            + "    void run()\n"
+            + "    {\n"
+            + "        if (own > 0)\n"
+            + "        {\n"
+            + "            own--;\n"
+            + "        }\n"
+            + "    }\n"
+            + "}\n";
+
+    public void testClassesAreColoredWithoutResolveOrIndex()
+    {
+        // The inherited field lies past the end of Sub, so coloring it there would show up as a span out of range
+        StringBuilder base = new StringBuilder("public class Base\n{\n");
+
+        for (int i = 0; i < 20; i++)
+        {
+            base.append("    // Padding to move the field below past the end of Sub\n");
+        }
+
+        myFixture.addFileToProject("Base.java", base.append("    protected int inherited;\n}\n").toString());
+        PsiFile file = myFixture.configureByText("Sub.java", SUB);
+
+        // Fail as soon as the tree of any other file, like the superclass, is loaded
+        ((PsiManagerImpl) getPsiManager()).setAssertOnFileLoadingFilter(
+                virtualFile -> !virtualFile.equals(file.getVirtualFile()), getTestRootDisposable());
+
+        List<Span> spans = new ArrayList<>();
+        DumbServiceImpl dumbService = DumbServiceImpl.getInstance(getProject());
+
+        // Any index access in dumb mode throws IndexNotReadyException, and resolving needs the index
+        dumbService.setDumb(true);
+
+        try
+        {
+            Amphibian2ColorGenerator.getFileBlockColor(file, (start, end, kind) -> spans.add(new Span(start, end, kind)));
+        }
+        finally
+        {
+            dumbService.setDumb(false);
+        }
+
+        for (Span span : spans)
+        {
+            assertTrue("Span out of the file: " + span, span.end <= SUB.length());
+        }
+
+        assertColored(spans, "Sub", Amphibian2BlockKind.CLASS);
+        assertColored(spans, "private int own;", Amphibian2BlockKind.CLASS);
+        assertColored(spans, "run", Amphibian2BlockKind.METHOD);
+        assertColored(spans, "if", Amphibian2BlockKind.CONDITION);
+    }
+
+    private static void assertColored(List<Span> spans, String text, Amphibian2BlockKind kind)
+    {
+        // Some span of the kind must cover the first occurrence of the text
+        TextRange range = TextRange.from(SUB.indexOf(text), text.length());
+
+        for (Span span : spans)
+        {
+            if (span.kind == kind && span.start <= range.getStartOffset() && span.end >= range.getEndOffset())
+            {
+                return;
+            }
+        }
+
+        fail("No " + kind + " span covers \"" + text + "\" in " + spans);
+    }
+
+    private static final class Span
+    {
+        private final int start;
+        private final int end;
+        private final Amphibian2BlockKind kind;
+
+        private Span(int start, int end, Amphibian2BlockKind kind)
+        {
+            this.start = start;
+            this.end = end;
+            this.kind = kind;
+        }
+
+        @Override
+        public String toString()
+        {
+            return kind + " " + start + "-" + end;
+        }
+    }
+}
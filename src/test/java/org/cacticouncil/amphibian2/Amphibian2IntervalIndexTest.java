@@ -0,0 +1,136 @@
+package org.cacticouncil.amphibian2;
+
+import junit.framework.TestCase;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Amphibian2IntervalIndexTest extends TestCase
+{
+    public void testNestedIntervals()
+    {
+        // A class with two methods, the second holding a loop
+        Amphibian2IntervalIndex index = build(new int[][] { { 0, 100 }, { 10, 40 }, { 50, 90 }, { 60, 80 } });
+
+        assertTrue(index.isNested());
+        assertEquals(-1, index.getParent(0));
+        assertEquals(0, index.getParent(1));
+        assertEquals(0, index.getParent(2));
+        assertEquals(2, index.getParent(3));
+        assertAgainstScan(index, 100);
+    }
+
+    public void testOverlappingIntervals()
+    {
+        // The second interval overlaps the first without nesting, and the third sits inside both of them
+        Amphibian2IntervalIndex index = build(new int[][] { { 0, 50 }, { 20, 80 }, { 30, 40 }, { 60, 70 } });
+
+        assertFalse(index.isNested());
+        assertEquals(-1, index.getParent(0));
+        assertEquals(-1, index.getParent(1));
+        assertEquals(1, index.getParent(2));
+        assertEquals(1, index.getParent(3));
+
+        // An offset inside both overlapping intervals and the inner one reports all three
+        assertEquals(list(0, 1, 2), enclosing(index, 35));
+
+        // The first interval must not be lost once the inner one has ended
+        assertEquals(list(0, 1), enclosing(index, 45));
+        assertEquals(list(1, 3), enclosing(index, 65));
+        assertEquals(list(0, 1, 2, 3), intersecting(index, 35, 65));
+        assertAgainstScan(index, 80);
+    }
+
+    public void testOverlapWithinNestedParent()
+    {
+        // A long outer interval holding two partially overlapping ones, followed by a sibling of theirs
+        Amphibian2IntervalIndex index = build(new int[][] { { 0, 200 }, { 10, 60 }, { 40, 100 }, { 120, 150 } });
+
+        assertFalse(index.isNested());
+        assertEquals(0, index.getParent(1));
+        assertEquals(0, index.getParent(2));
+        assertEquals(0, index.getParent(3));
+        assertAgainstScan(index, 200);
+    }
+
+    public void testEmptyIndex()
+    {
+        Amphibian2IntervalIndex index = new Amphibian2IntervalIndex.Builder().build();
+
+        assertTrue(index.isNested());
+        assertEquals(list(), enclosing(index, 0));
+        assertEquals(list(), intersecting(index, 0, 10));
+    }
+
+    private static Amphibian2IntervalIndex build(int[][] intervals)
+    {
+        // Add them in reverse, so the builder has to sort them
+        Amphibian2IntervalIndex.Builder builder = new Amphibian2IntervalIndex.Builder();
+
+        for (int i = intervals.length - 1; i >= 0; i--)
+        {
+            builder.add(intervals[i][0], intervals[i][1], i, 0);
+        }
+
+        return builder.build();
+    }
+
+    private static void assertAgainstScan(Amphibian2IntervalIndex index, int length)
+    {
+        // Both queries must agree with a plain scan of the entries, in the same order, at every offset and range
+        for (int offset = 0; offset <= length; offset++)
+        {
+            List<Integer> expected = new ArrayList<>();
+
+            for (int i = 0; i < index.size(); i++)
+            {
+                if (index.getStart(i) <= offset && index.getEnd(i) > offset)
+                {
+                    expected.add(i);
+                }
+            }
+
+            assertEquals("Enclosing " + offset, expected, enclosing(index, offset));
+
+            for (int end = offset + 1; end <= length; end += 7)
+            {
+                expected = new ArrayList<>();
+
+                for (int i = 0; i < index.size(); i++)
+                {
+                    if (index.getStart(i) < end && index.getEnd(i) > offset)
+                    {
+                        expected.add(i);
+                    }
+                }
+
+                assertEquals("Intersecting " + offset + "-" + end, expected, intersecting(index, offset, end));
+            }
+        }
+    }
+
+    private static List<Integer> enclosing(Amphibian2IntervalIndex index, int offset)
+    {
+        List<Integer> result = new ArrayList<>();
+        index.processEnclosing(offset, result::add);
+        return result;
+    }
+
+    private static List<Integer> intersecting(Amphibian2IntervalIndex index, int startOffset, int endOffset)
+    {
+        List<Integer> result = new ArrayList<>();
+        index.processIntersecting(startOffset, endOffset, result::add);
+        return result;
+    }
+
+    private static List<Integer> list(Integer... values)
+    {
+        List<Integer> result = new ArrayList<>();
+
+        for (Integer value : values)
+        {
+            result.add(value);
+        }
+
+        return result;
+    }
+}
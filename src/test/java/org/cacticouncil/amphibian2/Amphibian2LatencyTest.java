@@ -0,0 +1,262 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.codeInsight.daemon.impl.DaemonProgressIndicator;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+import org.jetbrains.annotations.NotNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class Amphibian2LatencyTest extends LightJavaCodeInsightFixtureTestCase
+{
+    // Length of the fixture file and number of typing bursts in the built-in session
+    private static final int FIXTURE_LINES = 5_000;
+    private static final int BURSTS = 40;
+
+    // Edits replayed before measuring, so the JIT and the cached model are warm
+    private static final int WARMUP_EDITS = 50;
+
+    // Passes over the whole fixture that the time of an edit is compared with
+    private static final int FULL_PASSES = 5;
+
+    // How much more of a full pass than the recorded baseline an edit may take; the times are relative to a pass
+    // over the whole fixture measured in the same run, so the baseline holds on any machine
+    private static final double TOLERANCE = 0.50;
+
+    private static final String HEADER = "# Amphibian 2 keystroke latency baseline\n"
+            + "# Checked by ./gradlew performanceTest, which check depends on; record it again with -PupdateBaseline.\n"
+            + "#\n"
+            + "# <session>.p50OfFullPass  measured median time from an edit until its highlights are in place, as a\n"
+            + "#                          fraction of a pass over the whole fixture in the same run\n"
+            + "# <session>.p99OfFullPass  the same for the 99th percentile; both fail 50% above the recorded value\n"
+            + "#\n"
+            + "# The built-in session is \"builtin\"; a session replayed with -Psession=<file> is keyed by its file name.\n";
+
+    public void testEditsStayIncremental() throws IOException
+    {
+        // Replay the built-in typing session, or a recorded one, and compare it with the recorded baseline
+        String sessionPath = System.getProperty("amphibian2.latency.session");
+        File sessionFile = sessionPath != null && !sessionPath.isEmpty() ? new File(sessionPath) : null;
+        String session = sessionFile != null ? sessionFile.getName() : "builtin";
+
+        String text = new Amphibian2BenchmarkSourceGenerator(FIXTURE_LINES, 4, 0.15, 0.05, 0.20).generate("Latency");
+        List<Edit> edits = sessionFile != null ? readSession(sessionFile) : generateSession(text);
+        assertTrue("The session has no edits after the " + WARMUP_EDITS + " warm-up edits", edits.size() > WARMUP_EDITS);
+
+        PsiFile file = PsiFileFactory.getInstance(getProject()).createFileFromText("Latency.java", JavaFileType.INSTANCE,
+                text, System.currentTimeMillis(), true);
+        Document document = PsiDocumentManager.getInstance(getProject()).getDocument(file);
+        assertNotNull("No document for the fixture file", document);
+
+        Editor editor = EditorFactory.getInstance().createEditor(document, getProject());
+        double[] latencies = new double[edits.size() - WARMUP_EDITS];
+        double[] fullPasses = new double[FULL_PASSES];
+
+        try
+        {
+            // Color the whole fixture once, like opening it
+            highlight(file, editor, null);
+
+            for (int i = 0; i < edits.size(); i++)
+            {
+                Edit edit = edits.get(i);
+                long start = System.nanoTime();
+
+                WriteCommandAction.runWriteCommandAction(getProject(), () -> edit.apply(document));
+
+                // Wait for the highlights of the edit to be in place, as the daemon would after the edit
+                PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+                highlight(file, editor, edit.getChangedRange(document));
+
+                if (i >= WARMUP_EDITS)
+                {
+                    latencies[i - WARMUP_EDITS] = (System.nanoTime() - start) / 1_000_000.0;
+                }
+            }
+
+            for (int i = 0; i < FULL_PASSES; i++)
+            {
+                // Drop the cached model, so the pass colors the edited fixture from scratch
+                Amphibian2BlockModel.invalidateAll();
+                long start = System.nanoTime();
+                highlight(file, editor, null);
+                fullPasses[i] = (System.nanoTime() - start) / 1_000_000.0;
+            }
+        }
+        finally
+        {
+            EditorFactory.getInstance().releaseEditor(editor);
+        }
+
+        Arrays.sort(latencies);
+        Arrays.sort(fullPasses);
+        double p50 = percentile(latencies, 0.50);
+        double p99 = percentile(latencies, 0.99);
+        double fullPass = Math.max(percentile(fullPasses, 0.50), 0.001);
+
+        System.out.printf("%d edits, p50 %.2f ms, p99 %.2f ms, max %.2f ms, full pass %.2f ms%n", latencies.length,
+                p50, p99, latencies[latencies.length - 1], fullPass);
+
+        Amphibian2Baseline baseline = new Amphibian2Baseline("latency.properties", HEADER);
+        boolean p50Within = baseline.checkAtMost(session + ".p50OfFullPass", p50 / fullPass, TOLERANCE);
+        boolean p99Within = baseline.checkAtMost(session + ".p99OfFullPass", p99 / fullPass, TOLERANCE);
+        baseline.save();
+
+        assertTrue("Edits took longer next to a full pass than in " + baseline.getFile(), p50Within && p99Within);
+    }
+
+    private static void highlight(@NotNull PsiFile file, @NotNull Editor editor, TextRange dirtyRange)
+    {
+        // Run the highlighting pass the way the daemon does, without its scheduling delay
+        Amphibian2HighlightingPass pass = new Amphibian2HighlightingPass(file, editor, null, dirtyRange,
+                Amphibian2ColoringLevel.FULL);
+        ReadAction.run(() -> pass.collectInformation(new DaemonProgressIndicator()));
+        pass.applyInformationToEditor();
+    }
+
+    private static double percentile(@NotNull double[] sorted, double fraction)
+    {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    @NotNull
+    private static List<Edit> generateSession(@NotNull String text)
+    {
+        // Type a small if statement into the end of random methods, with brace completion and a few backspaces
+        StringBuilder current = new StringBuilder(text);
+        List<Edit> edits = new ArrayList<>();
+        Random random = new Random(FIXTURE_LINES);
+
+        for (int burst = 0; burst < BURSTS; burst++)
+        {
+            int caret = current.indexOf("return value;", random.nextInt(current.length()));
+
+            if (caret < 0)
+            {
+                caret = current.indexOf("return value;");
+            }
+
+            caret = type(current, edits, caret, "if (value > " + burst + ") ");
+
+            // Typing an opening brace completes the closing one
+            caret = apply(current, edits, new Edit(caret, 0, "{}")) - 1;
+            caret = type(current, edits, caret, "\n            value += counter;");
+
+            for (int i = 0; i < 3; i++)
+            {
+                caret = apply(current, edits, new Edit(caret - 1, 1, ""));
+            }
+
+            caret = type(current, edits, caret, "er;\n        ");
+            caret = apply(current, edits, new Edit(caret + 1, 0, "\n        "));
+        }
+
+        return edits;
+    }
+
+    private static int type(@NotNull StringBuilder current, @NotNull List<Edit> edits, int caret, @NotNull String typed)
+    {
+        // One edit per typed character
+        for (int i = 0; i < typed.length(); i++)
+        {
+            caret = apply(current, edits, new Edit(caret, 0, typed.substring(i, i + 1)));
+        }
+
+        return caret;
+    }
+
+    private static int apply(@NotNull StringBuilder current, @NotNull List<Edit> edits, @NotNull Edit edit)
+    {
+        // Returns the caret after the edit
+        current.replace(edit.offset, edit.offset + edit.deleted, edit.inserted);
+        edits.add(edit);
+        return edit.offset + edit.inserted.length();
+    }
+
+    @NotNull
+    private static List<Edit> readSession(@NotNull File file) throws IOException
+    {
+        // One edit per line: "<offset> <deleted length> <inserted text>", with \n, \t and \\ escaped
+        List<Edit> edits = new ArrayList<>();
+
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+        {
+            if (line.isEmpty() || line.startsWith("#"))
+            {
+                continue;
+            }
+
+            String[] parts = line.split(" ", 3);
+            String inserted = parts.length > 2 ? unescape(parts[2]) : "";
+            edits.add(new Edit(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), inserted));
+        }
+
+        return edits;
+    }
+
+    @NotNull
+    private static String unescape(@NotNull String text)
+    {
+        StringBuilder builder = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+
+            if (c == '\\' && i + 1 < text.length())
+            {
+                char next = text.charAt(++i);
+                builder.append(next == 'n' ? '\n' : next == 't' ? '\t' : next);
+            }
+            else
+            {
+                builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static final class Edit
+    {
+        private final int offset;
+        private final int deleted;
+        private final String inserted;
+
+        private Edit(int offset, int deleted, @NotNull String inserted)
+        {
+            this.offset = offset;
+            this.deleted = deleted;
+            this.inserted = inserted;
+        }
+
+        private void apply(@NotNull Document document)
+        {
+            document.replaceString(offset, offset + deleted, inserted);
+        }
+
+        @NotNull
+        private TextRange getChangedRange(@NotNull Document document)
+        {
+            // The daemon marks at least the changed text dirty; the pass widens it to the enclosing member
+            int end = Math.min(document.getTextLength(), offset + Math.max(1, inserted.length()));
+            return new TextRange(Math.min(offset, end), end);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.cacticouncil.amphibian2;
+
+import com.intellij.codeInsight.daemon.impl.DaemonProgressIndicator;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.impl.DocumentMarkupModel;
+import com.intellij.openapi.editor.markup.RangeHighlighter;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import java.io.IOException;
+import java.util.Set;
+
+public class Amphibian2MemoryTest extends LightJavaCodeInsightFixtureTestCase
+{
+    // Generated files the highlighting is measured on
+    private static final int[] SIZES = {1_000, 10_000, 50_000};
+
+    // How much more heap than the recorded baseline a size may keep before it counts as a regression
+    private static final double TOLERANCE = 0.20;
+
+    private static final String HEADER = "# Amphibian 2 markup memory baseline\n"
+            + "# Checked by ./gradlew performanceTest, which check depends on; record it again with -PupdateBaseline.\n"
+            + "#\n"
+            + "# <mode>.<lines>.bytesPer1kLines  measured heap kept per 1000 lines after one highlighting pass of a new\n"
+            + "#                                 editor, with \"highlight\" making token highlighters and \"paint\" the\n"
+            + "#                                 block renderer; fails 20% above the recorded value\n";
+
+    public void testWithinMemoryBaseline() throws IOException
+    {
+        Amphibian2Baseline baseline = new Amphibian2Baseline("memory.properties", HEADER);
+        Amphibian2Settings settings = Amphibian2Settings.getInstance();
+        boolean paintBlocks = settings.paintBlocks;
+        int failures = 0;
+
+        System.out.printf("%-10s %8s %12s %14s %12s%n", "mode", "lines", "highlighters", "bytes/1k lines", "attributes");
+
+        try
+        {
+            // Measure both ways of showing blocks
+            for (boolean paint : new boolean[] {false, true})
+            {
+                settings.paintBlocks = paint;
+                String mode = paint ? "paint" : "highlight";
+
+                for (int lines : SIZES)
+                {
+                    Result result = measure(lines);
+                    long bytesPer1k = result.bytes * 1000 / lines;
+                    String key = mode + "." + lines;
+
+                    System.out.printf("%-10s %8d %12d %14d %12d%n", mode, lines, result.highlighters, bytesPer1k,
+                            result.attributes);
+
+                    // Every highlighter of a kind must share the attributes the scheme has for its key
+                    if (result.attributes > Amphibian2BlockKind.values().length)
+                    {
+                        System.out.printf("  FAILURE %s: %d distinct text attributes for %d kinds%n", key,
+                                result.attributes, Amphibian2BlockKind.values().length);
+                        failures++;
+                    }
+
+                    if (!baseline.checkAtMost(key + ".bytesPer1kLines", bytesPer1k, TOLERANCE))
+                    {
+                        failures++;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            settings.paintBlocks = paintBlocks;
+        }
+
+        baseline.save();
+        assertEquals("Block markup regressed against " + baseline.getFile(), 0, failures);
+    }
+
+    @NotNull
+    private Result measure(int lines)
+    {
+        String text = new Amphibian2BenchmarkSourceGenerator(lines, 4, 0.15, 0.05, 0.20).generate("Memory");
+
+        // A fully parsed file with a document, so only what the highlighting adds is measured
+        PsiFile file = PsiFileFactory.getInstance(getProject()).createFileFromText("Memory.java", JavaFileType.INSTANCE,
+                text, System.currentTimeMillis(), true);
+        file.accept(new PsiRecursiveElementWalkingVisitor() {});
+        Document document = PsiDocumentManager.getInstance(getProject()).getDocument(file);
+        assertNotNull("No document for the generated file", document);
+
+        Editor editor = EditorFactory.getInstance().createEditor(document, getProject());
+
+        try
+        {
+            long before = usedHeap();
+
+            // Run the highlighting pass of the editor the way the daemon does
+            Amphibian2HighlightingPass pass = new Amphibian2HighlightingPass(file, editor, null, null,
+                    Amphibian2ColoringLevel.FULL);
+            ReadAction.run(() -> pass.collectInformation(new DaemonProgressIndicator()));
+            pass.applyInformationToEditor();
+
+            long bytes = usedHeap() - before;
+
+            // Count the highlighters of the file and the distinct attributes they hold
+            RangeHighlighter[] documentHighlighters = DocumentMarkupModel.forDocument(document, getProject(), true)
+                    .getAllHighlighters();
+            RangeHighlighter[] editorHighlighters = editor.getMarkupModel().getAllHighlighters();
+            Set<TextAttributes> attributes = ContainerUtil.newIdentityTroveSet();
+
+            for (RangeHighlighter highlighter : documentHighlighters)
+            {
+                if (highlighter.getTextAttributes() != null)
+                {
+                    attributes.add(highlighter.getTextAttributes());
+                }
+            }
+
+            return new Result(documentHighlighters.length + editorHighlighters.length, Math.max(0, bytes),
+                    attributes.size());
+        }
+        finally
+        {
+            EditorFactory.getInstance().releaseEditor(editor);
+        }
+    }
+
+    private static long usedHeap()
+    {
+        // Collect a few times so only reachable objects are counted
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class Result
+    {
+        private final int highlighters;
+        private final long bytes;
+        private final int attributes;
+
+        private Result(int highlighters, long bytes, int attributes)
+        {
+            this.highlighters = highlighters;
+            this.bytes = bytes;
+            this.attributes = attributes;
+        }
+    }
+}